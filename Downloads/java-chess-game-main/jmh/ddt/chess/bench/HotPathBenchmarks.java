@@ -0,0 +1,139 @@
+package ddt.chess.bench;
+
+import ddt.chess.core.*;
+import ddt.chess.util.Notation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+// JMH benchmarks for the hot paths of the library, all run on one middlegame position
+// build and run with: mvn -P jmh package && java -jar target/benchmarks.jar
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotPathBenchmarks {
+    // a middlegame position with pieces of every type still on the board
+    private static final String[] OPENING = {
+            "e2e4", "e7e5", "g1f3", "b8c6", "f1c4", "g8f6", "d2d3", "f8c5", "c2c3", "d7d6", "b1d2", "a7a6"
+    };
+
+    private Game game;
+    private Board board;
+    private PieceColor turn;
+    private ArrayList<Move> validMoves;
+    private Move sampleMove;
+    private int enPassantSquare;
+    private Square enPassantTarget;
+    private final IntMoveList encodedMoves = new IntMoveList();
+    private final StringBuilder fen = new StringBuilder();
+
+    @Setup
+    public void setUp() {
+        game = new Game();
+        board = game.getBoard();
+        for (String move : OPENING) {
+            game.makeMove(Notation.stockfishOutputToMove(board, move));
+        }
+        turn = game.getCurrentTurn();
+        validMoves = board.generateAllValidMoves(turn);
+        sampleMove = validMoves.get(validMoves.size() / 2);
+        enPassantSquare = board.getEnPassantSquare();
+        enPassantTarget = MoveValidator.getEnPassantTarget(board);
+    }
+
+    @Benchmark
+    public ArrayList<Move> generateAllValidMoves() {
+        return board.generateAllValidMoves(turn);
+    }
+
+    @Benchmark
+    public int generateAllValidMovesEncoded() {
+        board.generateAllValidMoves(turn, enPassantSquare, encodedMoves);
+        return encodedMoves.size();
+    }
+
+    @Benchmark
+    public ArrayList<Move> generateAllValidNormalMoves() {
+        return board.generateAllValidNormalMoves(turn);
+    }
+
+    @Benchmark
+    public boolean isCheck() {
+        return board.isCheck(turn);
+    }
+
+    @Benchmark
+    public boolean isValidMove() {
+        Move move = new Move(sampleMove.getFromSquare(), sampleMove.getToSquare());
+        return MoveValidator.isValidMove(board, move);
+    }
+
+    // served from the per-position cache of Game
+    @Benchmark
+    public String gameToFEN() {
+        return Notation.gameToFEN(game);
+    }
+
+    @Benchmark
+    public int appendFEN() {
+        fen.setLength(0);
+        Notation.appendFEN(game, fen);
+        return fen.length();
+    }
+
+    @Benchmark
+    public void makeUndoMove() {
+        board.makeMove(sampleMove);
+        board.undoMove(sampleMove);
+    }
+
+    @Benchmark
+    public int playTakeBackAllMoves() {
+        for (Move move : validMoves) {
+            board.playMove(move, null);
+            board.takeBackMove(move);
+        }
+        return validMoves.size();
+    }
+
+    @Benchmark
+    public int playTakeBackAllEncodedMoves() {
+        board.generateAllValidMoves(turn, enPassantSquare, encodedMoves);
+        for (int i = 0; i < encodedMoves.size(); i++) {
+            board.playMove(encodedMoves.get(i));
+            board.takeBackMove(encodedMoves.get(i));
+        }
+        return encodedMoves.size();
+    }
+
+    @Benchmark
+    public void gameMakeUndoMove() {
+        Move move = new Move(sampleMove.getFromSquare(), sampleMove.getToSquare());
+        game.makeMove(move);
+        game.undoLastMove();
+    }
+
+    // served from the per-position status cache of Game
+    @Benchmark
+    public boolean isOver() {
+        return game.isOver();
+    }
+
+    @Benchmark
+    public boolean gameMakeMoveIsOverUndo() {
+        Move move = new Move(sampleMove.getFromSquare(), sampleMove.getToSquare());
+        game.makeMove(move);
+        boolean over = game.isOver();
+        game.undoLastMove();
+        return over;
+    }
+
+    @Benchmark
+    public long perftDepth3() {
+        return Perft.perft(board, turn, enPassantTarget, 3);
+    }
+}
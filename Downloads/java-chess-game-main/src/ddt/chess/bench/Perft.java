@@ -0,0 +1,125 @@
+package ddt.chess.bench;
+
+import ddt.chess.core.*;
+
+import java.util.Arrays;
+
+// counts the leaf nodes of the legal move tree to a fixed depth and compares them with known results
+// a wrong count means a bug in move generation or make/undo
+public class Perft {
+    // test positions and their reference counts, index is the depth
+    // the others cover castling, en passant, promotion and pins that the starting position reaches too late
+    private static final String[] POSITIONS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", // "Kiwipete"
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8"
+    };
+    private static final long[][] COUNTS = {
+            {1, 20, 400, 8902, 197281, 4865609, 119060324},
+            {1, 48, 2039, 97862, 4085603, 193690690},
+            {1, 14, 191, 2812, 43238, 674624, 11030083},
+            {1, 6, 264, 9467, 422333, 15833292},
+            {1, 44, 1486, 62379, 2103487, 89941194}
+    };
+
+    // usage: Perft [max depth] [divide] [fen], the other positions stop one depth earlier
+    public static void main(String[] args) {
+        int maxDepth = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        boolean divide = args.length > 1 && args[1].equals("divide");
+
+        boolean passed = true;
+        if (args.length > 2) {
+            passed = run(String.join(" ", Arrays.copyOfRange(args, 2, args.length)), new long[0], maxDepth, divide);
+        } else {
+            for (int i = 0; i < POSITIONS.length; i++) {
+                passed &= run(POSITIONS[i], COUNTS[i], (i == 0) ? maxDepth : maxDepth - 1, divide);
+            }
+        }
+        System.out.println(passed ? "ALL PASSED" : "SOME FAILED");
+    }
+
+    private static boolean run(String fen, long[] counts, int maxDepth, boolean divide) {
+        Board board = new Board();
+        FenParser parser = new FenParser();
+        parser.parse(fen, board);
+        PieceColor turn = parser.getTurn();
+        int enPassantSquare = parser.getEnPassantSquare();
+        System.out.println("PERFT " + fen);
+        boolean passed = true;
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            long start = System.nanoTime();
+            long nodes = divide ? divide(board, turn, enPassantSquare, depth)
+                    : perft(board, turn, enPassantSquare, depth, newMoveLists(depth));
+            long elapsed = System.nanoTime() - start;
+            String expected = (depth < counts.length) ? String.valueOf(counts[depth]) : "?";
+            boolean ok = depth >= counts.length || nodes == counts[depth];
+            passed &= ok;
+            System.out.printf("depth %d: %d nodes (expected %s) %s, %d ms, %.0f nodes/s%n",
+                    depth, nodes, expected, ok ? "OK" : "FAILED",
+                    elapsed / 1_000_000, nodes / (elapsed / 1e9));
+        }
+        return passed;
+    }
+
+    public static long perft(Board board, PieceColor turn, Square enPassantTarget, int depth) {
+        return perft(board, turn, toIndex(enPassantTarget), depth, newMoveLists(depth));
+    }
+
+    // one move list per remaining depth, reused for every position at that depth
+    private static long perft(Board board, PieceColor turn, int enPassantSquare, int depth, IntMoveList[] moveLists) {
+        if (depth == 0) {
+            return 1;
+        }
+        IntMoveList moves = moveLists[depth];
+        board.generateAllValidMoves(turn, enPassantSquare, moves);
+        if (depth == 1) {
+            // leaves, no need to play the moves
+            return moves.size();
+        }
+        PieceColor nextTurn = (turn == PieceColor.WHITE) ? PieceColor.BLACK : PieceColor.WHITE;
+        long nodes = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            board.playMove(move);
+            nodes += perft(board, nextTurn, EncodedMove.getEnPassantSquareAfter(move), depth - 1, moveLists);
+            board.takeBackMove(move);
+        }
+        return nodes;
+    }
+
+    // perft with a breakdown per root move, to find which subtree disagrees with a reference engine
+    public static long divide(Board board, PieceColor turn, Square enPassantTarget, int depth) {
+        return divide(board, turn, toIndex(enPassantTarget), depth);
+    }
+
+    private static long divide(Board board, PieceColor turn, int enPassantSquare, int depth) {
+        IntMoveList[] moveLists = newMoveLists(depth);
+        IntMoveList moves = new IntMoveList();
+        board.generateAllValidMoves(turn, enPassantSquare, moves);
+        PieceColor nextTurn = (turn == PieceColor.WHITE) ? PieceColor.BLACK : PieceColor.WHITE;
+        long nodes = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            board.playMove(move);
+            long count = perft(board, nextTurn, EncodedMove.getEnPassantSquareAfter(move), depth - 1, moveLists);
+            board.takeBackMove(move);
+            System.out.println(EncodedMove.toUci(move) + ": " + count);
+            nodes += count;
+        }
+        return nodes;
+    }
+
+    private static IntMoveList[] newMoveLists(int depth) {
+        IntMoveList[] res = new IntMoveList[depth + 1];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = new IntMoveList();
+        }
+        return res;
+    }
+
+    private static int toIndex(Square square) {
+        return (square == null) ? -1 : Board.squareIndex(square);
+    }
+}
@@ -0,0 +1,68 @@
+package ddt.chess.bench;
+
+import ddt.chess.core.*;
+import ddt.chess.util.AnalysisCache;
+import ddt.chess.util.Notation;
+
+// replays move sequences that once broke and compares the result with what it should be
+// like Perft it prints ALL PASSED or SOME FAILED
+public class RegressionCheck {
+    public static void main(String[] args) {
+        boolean passed = true;
+        passed &= check("cached FEN after undo and another line", fenCacheAfterUndo());
+        passed &= check("analysis cache key of castling rights and move counters", analysisCacheKey());
+        System.out.println(passed ? "ALL PASSED" : "SOME FAILED");
+    }
+
+    private static boolean check(String name, boolean ok) {
+        System.out.println(name + ": " + (ok ? "OK" : "FAILED"));
+        return ok;
+    }
+
+    // the second line reaches the same pieces, side to move, clock and history size as the first,
+    // but with every castling right left, the FEN of the first line must not be returned
+    private static boolean fenCacheAfterUndo() {
+        Game game = new Game();
+        play(game, "g1f3", "g8f6", "h1g1", "h8g8", "g1h1", "g8h8");
+        boolean ok = game.getFEN().equals(uncachedFEN(game));
+        for (int i = 0; i < 6; i++) {
+            game.undoLastMove();
+        }
+        play(game, "g1f3", "g8f6", "f3g5", "f6g4", "g5f3", "g4f6");
+        return ok && game.getFEN().equals(uncachedFEN(game));
+    }
+
+    // the key follows the position, not the text of its FEN: the move counters do not change it,
+    // castling rights and the search parameters do
+    private static boolean analysisCacheKey() {
+        String fen = "r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1";
+        long key = analysisKey(fen, 1000, 1, -1);
+        return key == analysisKey("r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 12 40", 1000, 1, -1)
+                && key != analysisKey("r3k2r/8/8/8/8/8/8/R3K2R w Kkq - 0 1", 1000, 1, -1)
+                && key != analysisKey(fen, 2000, 1, -1)
+                && key != analysisKey(fen, 1000, 3, -1)
+                && key != analysisKey(fen, 1000, 1, 1500);
+    }
+
+    private static long analysisKey(String fen, int moveTime, int multiPV, int elo) {
+        Board board = new Board();
+        FenParser parser = new FenParser();
+        parser.parse(fen, board);
+        long positionKey = Zobrist.positionKey(board, parser.getTurn(), parser.getEnPassantSquare());
+        return AnalysisCache.key(positionKey, moveTime, multiPV, elo);
+    }
+
+    private static void play(Game game, String... moves) {
+        for (String move : moves) {
+            if (!game.makeMove(Notation.stockfishOutputToMove(game.getBoard(), move))) {
+                throw new IllegalStateException("illegal move " + move);
+            }
+        }
+    }
+
+    private static String uncachedFEN(Game game) {
+        StringBuilder res = new StringBuilder();
+        Notation.appendFEN(game, res);
+        return res.toString();
+    }
+}
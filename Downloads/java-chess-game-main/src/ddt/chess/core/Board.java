@@ -2,9 +2,38 @@ package ddt.chess.core;
 import ddt.chess.core.pieces.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Board {
     private final Square[][] board;
+    // bitboards mirroring the squares, bit (x * 8 + y) is set when that square is occupied
+    // one set per piece, indexed by color.ordinal() * 6 + type.ordinal()
+    private final long[] pieceBitboards = new long[12];
+    // one set per color, indexed by color.ordinal()
+    private final long[] colorBitboards = new long[2];
+    private long occupiedBitboard;
+    // the light squares, a8 (bit 0) is one of them
+    private static final long LIGHT_SQUARES = 0xAA55AA55AA55AA55L;
+    // piece lists, the bitboard indices of every piece of a color, indexed by color.ordinal()
+    private final int[][] pieceLists = new int[2][64];
+    private final int[] pieceCounts = new int[2];
+    // position of each occupied square inside its color's piece list
+    private final int[] pieceListPositions = new int[64];
+    // bitboard index of each king, -1 when the king is not on the board
+    private final int[] kingIndices = {-1, -1};
+    // sum of piece values of each color
+    private final int[] material = new int[2];
+    // Zobrist key of the piece placement, updated with every piece placed or removed
+    private long zobristKey;
+    // pieces taken off the board by playMove(int), so takeBackMove(int) can put the same objects back
+    private Piece[] removedPieces = new Piece[64];
+    private int removedCount;
+    // state of the position the pieces alone do not tell, kept up to date by playMove and takeBackMove
+    private int castlingRights; // bitmask of Zobrist.CASTLING_* flags
+    private int enPassantSquare = -1; // bitboard index of the en passant target, -1 if there is none
+    // the state before each move played, packed as castling rights (bits 0-3) and en passant square + 1 (bits 4-10)
+    private int[] states = new int[64];
+    private int stateCount;
 
     public Board() {
         // create empty board
@@ -20,75 +49,222 @@ public class Board {
         return board[x][y];
     }
 
+    // square from its bitboard index (x * 8 + y)
+    public Square getSquare(int index) {
+        return board[index >>> 3][index & 7];
+    }
+
+    public static int squareIndex(Square square) {
+        return square.getX() * 8 + square.getY();
+    }
+
+    public long getPieceBitboard(PieceColor color, PieceType type) {
+        return pieceBitboards[color.ordinal() * 6 + type.ordinal()];
+    }
+
+    public long getColorBitboard(PieceColor color) {
+        return colorBitboards[color.ordinal()];
+    }
+
+    public long getOccupiedBitboard() {
+        return occupiedBitboard;
+    }
+
+    public int getPieceCount(PieceColor color) {
+        return pieceCounts[color.ordinal()];
+    }
+
+    public int getPieceCount(PieceColor color, PieceType type) {
+        return Long.bitCount(getPieceBitboard(color, type));
+    }
+
+    public int getMaterial(PieceColor color) {
+        return material[color.ordinal()];
+    }
+
+    // hash of the piece placement only, see Game.getZobristKey for the full position key
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
+    // castling rights of both sides, a bitmask of Zobrist.CASTLING_* flags
+    // a right is lost for good once its king or rook leaves its home square or is captured there
+    public int getCastlingRights() {
+        return castlingRights;
+    }
+
+    public void setCastlingRights(int castlingRights) {
+        this.castlingRights = castlingRights;
+    }
+
+    // bitboard index of the en passant target square, -1 if the last move was not a double pawn push
+    public int getEnPassantSquare() {
+        return enPassantSquare;
+    }
+
+    public void setEnPassantSquare(int enPassantSquare) {
+        this.enPassantSquare = enPassantSquare;
+    }
+
+    // squares of every piece of a color, in no particular order
+    public ArrayList<Square> getPieceSquares(PieceColor color) {
+        int c = color.ordinal();
+        ArrayList<Square> res = new ArrayList<>(pieceCounts[c]);
+        for (int i = 0; i < pieceCounts[c]; i++) {
+            res.add(getSquare(pieceLists[c][i]));
+        }
+        return res;
+    }
+
+    // every piece placement on the board goes through here so the bitboards,
+    // piece lists and king locations stay in sync with the squares
+    void setPiece(Square square, Piece piece) {
+        int index = squareIndex(square);
+        long bit = 1L << index;
+        Piece oldPiece = square.getPiece();
+        if (oldPiece != null) {
+            int c = oldPiece.getColor().ordinal();
+            pieceBitboards[c * 6 + oldPiece.getType().ordinal()] &= ~bit;
+            colorBitboards[c] &= ~bit;
+            occupiedBitboard &= ~bit;
+            // swap the last entry of the piece list into the removed one
+            int last = pieceLists[c][--pieceCounts[c]];
+            pieceLists[c][pieceListPositions[index]] = last;
+            pieceListPositions[last] = pieceListPositions[index];
+            material[c] -= oldPiece.getType().getValue();
+            zobristKey ^= Zobrist.pieceKey(oldPiece, index);
+            if (oldPiece.getType() == PieceType.KING) {
+                long kings = pieceBitboards[c * 6 + PieceType.KING.ordinal()];
+                kingIndices[c] = (kings == 0) ? -1 : Long.numberOfTrailingZeros(kings);
+            }
+        }
+        square.setPiece(piece);
+        if (piece != null) {
+            int c = piece.getColor().ordinal();
+            pieceBitboards[c * 6 + piece.getType().ordinal()] |= bit;
+            colorBitboards[c] |= bit;
+            occupiedBitboard |= bit;
+            pieceListPositions[index] = pieceCounts[c];
+            pieceLists[c][pieceCounts[c]++] = index;
+            material[c] += piece.getType().getValue();
+            zobristKey ^= Zobrist.pieceKey(piece, index);
+            if (piece.getType() == PieceType.KING) {
+                kingIndices[c] = index;
+            }
+        }
+    }
+
+    // independent copy with new piece objects, so it can be changed (e.g. by a search) without touching this board
+    public Board copy() {
+        Board res = new Board();
+        for (long pieces = occupiedBitboard; pieces != 0; pieces &= pieces - 1) {
+            int index = Long.numberOfTrailingZeros(pieces);
+            Piece piece = getSquare(index).getPiece();
+            Piece pieceCopy = createPiece(piece.getColor(), piece.getType());
+            pieceCopy.setHasMoved(piece.hasMoved());
+            res.setPiece(res.getSquare(index), pieceCopy);
+        }
+        res.castlingRights = castlingRights;
+        res.enPassantSquare = enPassantSquare;
+        return res;
+    }
+
+    static Piece createPiece(PieceColor color, PieceType type) {
+        return switch (type) {
+            case PAWN -> new Pawn(color);
+            case KNIGHT -> new Knight(color);
+            case BISHOP -> new Bishop(color);
+            case ROOK -> new Rook(color);
+            case QUEEN -> new Queen(color);
+            case KING -> new King(color);
+        };
+    }
+
     public void setupPieces() {
         for (int i = 0; i < 8; i++) {
             // setup pawn pieces
-            board[1][i].setPiece(new Pawn(PieceColor.BLACK));
-            board[6][i].setPiece(new Pawn(PieceColor.WHITE));
+            setPiece(board[1][i], new Pawn(PieceColor.BLACK));
+            setPiece(board[6][i], new Pawn(PieceColor.WHITE));
         }
         // black rooks
-        board[0][0].setPiece(new Rook(PieceColor.BLACK));
-        board[0][7].setPiece(new Rook(PieceColor.BLACK));
+        setPiece(board[0][0], new Rook(PieceColor.BLACK));
+        setPiece(board[0][7], new Rook(PieceColor.BLACK));
         // white rooks
-        board[7][0].setPiece(new Rook(PieceColor.WHITE));
-        board[7][7].setPiece(new Rook(PieceColor.WHITE));
+        setPiece(board[7][0], new Rook(PieceColor.WHITE));
+        setPiece(board[7][7], new Rook(PieceColor.WHITE));
         // black knights
-        board[0][1].setPiece(new Knight(PieceColor.BLACK));
-        board[0][6].setPiece(new Knight(PieceColor.BLACK));
+        setPiece(board[0][1], new Knight(PieceColor.BLACK));
+        setPiece(board[0][6], new Knight(PieceColor.BLACK));
         // white knights
-        board[7][1].setPiece(new Knight(PieceColor.WHITE));
-        board[7][6].setPiece(new Knight(PieceColor.WHITE));
+        setPiece(board[7][1], new Knight(PieceColor.WHITE));
+        setPiece(board[7][6], new Knight(PieceColor.WHITE));
         // black bishops
-        board[0][2].setPiece(new Bishop(PieceColor.BLACK));
-        board[0][5].setPiece(new Bishop(PieceColor.BLACK));
+        setPiece(board[0][2], new Bishop(PieceColor.BLACK));
+        setPiece(board[0][5], new Bishop(PieceColor.BLACK));
         // white bishops
-        board[7][2].setPiece(new Bishop(PieceColor.WHITE));
-        board[7][5].setPiece(new Bishop(PieceColor.WHITE));
+        setPiece(board[7][2], new Bishop(PieceColor.WHITE));
+        setPiece(board[7][5], new Bishop(PieceColor.WHITE));
         // queens
-        board[7][3].setPiece(new Queen(PieceColor.WHITE));
-        board[0][3].setPiece(new Queen(PieceColor.BLACK));
+        setPiece(board[7][3], new Queen(PieceColor.WHITE));
+        setPiece(board[0][3], new Queen(PieceColor.BLACK));
         // kings
-        board[7][4].setPiece(new King(PieceColor.WHITE));
-        board[0][4].setPiece(new King(PieceColor.BLACK));
+        setPiece(board[7][4], new King(PieceColor.WHITE));
+        setPiece(board[0][4], new King(PieceColor.BLACK));
+        castlingRights = Zobrist.CASTLING_WHITE_KINGSIDE | Zobrist.CASTLING_WHITE_QUEENSIDE
+                | Zobrist.CASTLING_BLACK_KINGSIDE | Zobrist.CASTLING_BLACK_QUEENSIDE;
+        enPassantSquare = -1;
+        stateCount = 0;
     }
 
     public void makeMove(Move move) {
         // just moves the piece to a square
-        move.getToSquare().setPiece(move.getMovingPiece());
-        move.getFromSquare().setPiece(null);
+        setPiece(move.getToSquare(), move.getMovingPiece());
+        setPiece(move.getFromSquare(), null);
     }
 
     public void emptyBoard() {
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                board[i][j].setPiece(null);
-            }
+        // only the occupied squares need clearing
+        while (occupiedBitboard != 0) {
+            setPiece(getSquare(Long.numberOfTrailingZeros(occupiedBitboard)), null);
         }
+        castlingRights = 0;
+        enPassantSquare = -1;
+        stateCount = 0;
     }
 
     public void undoMove(Move move) {
         // set the moving piece back to the square it moved from
-        move.getFromSquare().setPiece(move.getMovingPiece());
+        setPiece(move.getFromSquare(), move.getMovingPiece());
         // put the captured piece back to where it was
-        move.getToSquare().setPiece(move.getCapturedPiece());
+        setPiece(move.getToSquare(), move.getCapturedPiece());
     }
 
-    public Square findKingSquare(PieceColor color) {
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                Square square = board[i][j];
-                if (square.isEmpty()) {
-                    // skip empty squares;
-                    continue;
-                }
-                Piece piece = square.getPiece();
-                if (piece.getType() == PieceType.KING
-                        && piece.getColor() == color) {
-                    return square;
-                }
-            }
+    // neither side can ever checkmate: king against king, king and one bishop or knight against king,
+    // or no pieces besides the kings but bishops that all stand on squares of one color
+    public boolean isInsufficientMaterial() {
+        long heavyPieces = 0;
+        long knights = 0;
+        long bishops = 0;
+        for (PieceColor color : PieceColor.values()) {
+            int offset = color.ordinal() * 6;
+            heavyPieces |= pieceBitboards[offset + PieceType.PAWN.ordinal()]
+                    | pieceBitboards[offset + PieceType.ROOK.ordinal()]
+                    | pieceBitboards[offset + PieceType.QUEEN.ordinal()];
+            knights |= pieceBitboards[offset + PieceType.KNIGHT.ordinal()];
+            bishops |= pieceBitboards[offset + PieceType.BISHOP.ordinal()];
+        }
+        if (heavyPieces != 0) {
+            return false;
+        }
+        if (Long.bitCount(knights | bishops) <= 1) {
+            return true;
         }
-        return null;
+        return knights == 0 && ((bishops & LIGHT_SQUARES) == 0 || (bishops & ~LIGHT_SQUARES) == 0);
+    }
+
+    public Square findKingSquare(PieceColor color) {
+        int index = kingIndices[color.ordinal()];
+        return (index == -1) ? null : getSquare(index);
     }
 
 
@@ -97,81 +273,79 @@ public class Board {
         if (kingSquare == null) {
             return false;
         }
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                Square square = board[i][j];
-                if (square.isEmpty()) {
-                    // skip empty squares;
-                    continue;
-                }
-                Piece piece = square.getPiece();
-                if (piece.getColor() == color) {
-                    // skip pieces of the same color
-                    continue;
-                }
-                Move moveToKing = new Move(square, kingSquare);
-                if (MoveValidator.isPossibleMove(this, moveToKing)) {
-                    return true;
-                }
-            }
+        PieceColor opponentColor = (color == PieceColor.WHITE) ? PieceColor.BLACK : PieceColor.WHITE;
+        return isSquareAttacked(squareIndex(kingSquare), opponentColor);
+    }
+
+    public boolean isSquareAttacked(Square square, PieceColor byColor) {
+        return isSquareAttacked(squareIndex(square), byColor);
+    }
+
+    // looks outward from the square for pieces of byColor that attack it
+    public boolean isSquareAttacked(int square, PieceColor byColor) {
+        return isSquareAttacked(square, byColor, occupiedBitboard, ~0L);
+    }
+
+    // same with another occupancy, only the pieces of byColor on the squares in attackers count
+    // this answers "is the square attacked after a move" without playing it
+    private boolean isSquareAttacked(int square, PieceColor byColor, long occupied, long attackers) {
+        int offset = byColor.ordinal() * 6;
+        // a pawn of byColor attacks the square if it stands where a pawn of the other color on the square would attack
+        int defenderColor = (byColor == PieceColor.WHITE) ? PieceColor.BLACK.ordinal() : PieceColor.WHITE.ordinal();
+        if ((MoveGenerator.PAWN_ATTACKS[defenderColor][square] & pieceBitboards[offset + PieceType.PAWN.ordinal()] & attackers) != 0) {
+            return true;
+        }
+        if ((MoveGenerator.KNIGHT_ATTACKS[square] & pieceBitboards[offset + PieceType.KNIGHT.ordinal()] & attackers) != 0) {
+            return true;
+        }
+        if ((MoveGenerator.KING_ATTACKS[square] & pieceBitboards[offset + PieceType.KING.ordinal()] & attackers) != 0) {
+            return true;
+        }
+        long queens = pieceBitboards[offset + PieceType.QUEEN.ordinal()];
+        long rooksAndQueens = (pieceBitboards[offset + PieceType.ROOK.ordinal()] | queens) & attackers;
+        if (rooksAndQueens != 0
+                && (MoveGenerator.slidingTargets(square, occupied, MoveGenerator.ROOK_DIRECTIONS) & rooksAndQueens) != 0) {
+            return true;
         }
-        return false;
+        long bishopsAndQueens = (pieceBitboards[offset + PieceType.BISHOP.ordinal()] | queens) & attackers;
+        return bishopsAndQueens != 0
+                && (MoveGenerator.slidingTargets(square, occupied, MoveGenerator.BISHOP_DIRECTIONS) & bishopsAndQueens) != 0;
     }
 
     // excluding en passant and castling
     public ArrayList<Move> generateAllValidNormalMoves(PieceColor color) {
-        ArrayList<Move> res = new ArrayList<>();
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                Square square = getSquare(i, j);
-                if (square.isEmpty()) {
-                    // skip empty squares;
-                    continue;
-                }
-                if (square.getPiece().getColor() != color) {
-                    // ignore pieces of the opposite color
-                    continue;
-                }
-                for (int k = 0; k < 8; k++) {
-                    for (int l = 0; l < 8; l++) {
-                        Square otherSquare = getSquare(k, l);
-                        Move move = new Move(square, otherSquare);
-                        if (MoveValidator.isValidNormalMove(this, move)) {
-                            res.add(move);
-                        }
-                    }
-                }
-            }
-        }
-        return res;
+        return MoveGenerator.generateLegalMoves(this, color, false, null);
     }
 
-    // including en passant and castling
-    public ArrayList<Move> generateAllValidMoves(PieceColor color, MoveHistory history) {
-        ArrayList<Move> res = new ArrayList<>();
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                Square square = getSquare(i, j);
-                if (square.isEmpty()) {
-                    // skip empty squares;
-                    continue;
-                }
-                if (square.getPiece().getColor() != color) {
-                    // ignore pieces of the opposite color
-                    continue;
-                }
-                for (int k = 0; k < 8; k++) {
-                    for (int l = 0; l < 8; l++) {
-                        Square otherSquare = getSquare(k, l);
-                        Move move = new Move(square, otherSquare);
-                        if (MoveValidator.isValidMove(this, move, history)) {
-                            res.add(move);
-                        }
-                    }
-                }
-            }
+    // including en passant and castling, as the castling rights and en passant square of the board allow
+    public ArrayList<Move> generateAllValidMoves(PieceColor color) {
+        return generateAllValidMoves(color, MoveValidator.getEnPassantTarget(this));
+    }
+
+    // including en passant and castling, enPassantTarget is null when en passant is not possible
+    public ArrayList<Move> generateAllValidMoves(PieceColor color, Square enPassantTarget) {
+        return MoveGenerator.generateLegalMoves(this, color, true, enPassantTarget);
+    }
+
+    // including en passant and castling, fills moves (cleared first) with encoded moves, see EncodedMove
+    // enPassantSquare is the bitboard index of the en passant target, -1 when en passant is not possible
+    public void generateAllValidMoves(PieceColor color, int enPassantSquare, IntMoveList moves) {
+        MoveGenerator.generateMoves(this, color, enPassantSquare, moves);
+    }
+
+    // king safety of a move from one square to another, computed on the bitboards without moving anything
+    // capturedSquare is the square of the piece the move takes: the destination, or the passed pawn for en passant
+    // not for castling, where the rook moves too
+    public boolean isSafeAfterMove(int from, int to, int capturedSquare) {
+        Piece movingPiece = getSquare(from).getPiece();
+        int c = movingPiece.getColor().ordinal();
+        int kingIndex = (movingPiece.getType() == PieceType.KING) ? to : kingIndices[c];
+        if (kingIndex == -1) {
+            return true;
         }
-        return res;
+        long occupied = (occupiedBitboard & ~(1L << from) & ~(1L << capturedSquare)) | (1L << to);
+        PieceColor opponentColor = movingPiece.isWhite() ? PieceColor.BLACK : PieceColor.WHITE;
+        return !isSquareAttacked(kingIndex, opponentColor, occupied, ~(1L << capturedSquare));
     }
 
     public boolean isSafeAfterMove(Move move) {
@@ -185,6 +359,160 @@ public class Board {
         return res;
     }
 
+    // classify and perform a move that is known to be legal, including castling, en passant and promotion
+    // promotion is the piece a pawn reaching the last rank turns into (queen if null)
+    public void playMove(Move move, PieceType promotion) {
+        pushState(squareIndex(move.getFromSquare()), squareIndex(move.getToSquare()),
+                MoveValidator.isDoublePawnPush(move));
+        Piece movingPiece = move.getMovingPiece();
+        boolean isPawn = movingPiece.getType() == PieceType.PAWN;
+        MoveType type;
+        if (movingPiece.getType() == PieceType.KING && move.getFromSquare().yDistanceTo(move.getToSquare()) == 2) {
+            type = MoveType.CASTLING;
+        } else if (isPawn && MoveValidator.isValidPromotion(move)) {
+            type = MoveType.PROMOTION;
+        } else if (isPawn && move.getToSquare().isEmpty() && move.getFromSquare().getY() != move.getToSquare().getY()) {
+            // a pawn moving diagonally to an empty square can only be capturing en passant
+            type = MoveType.EN_PASSANT;
+        } else {
+            type = move.isCapture() ? MoveType.CAPTURE : MoveType.NORMAL;
+        }
+        perform(move, type, (promotion == null) ? PieceType.QUEEN : promotion);
+    }
+
+    // perform a move already classified by the legal move generator, legalMove is its encoded form
+    // (see Game.getLegalMoves), the type and promotion are read from its flags instead of the board
+    public void playMove(Move move, int legalMove) {
+        pushState(EncodedMove.getFrom(legalMove), EncodedMove.getTo(legalMove), EncodedMove.isDoublePawnPush(legalMove));
+        MoveType type;
+        if (EncodedMove.isCastling(legalMove)) {
+            type = MoveType.CASTLING;
+        } else if (EncodedMove.isPromotion(legalMove)) {
+            type = MoveType.PROMOTION;
+        } else if (EncodedMove.isEnPassant(legalMove)) {
+            type = MoveType.EN_PASSANT;
+        } else {
+            type = EncodedMove.isCapture(legalMove) ? MoveType.CAPTURE : MoveType.NORMAL;
+        }
+        perform(move, type, EncodedMove.getPromotion(legalMove));
+    }
+
+    private void perform(Move move, MoveType type, PieceType promotion) {
+        move.setMoveType(type);
+        switch (type) {
+            case CASTLING -> performCastling(move);
+            case PROMOTION -> promotePawn(move, promotion);
+            case EN_PASSANT -> performEnPassant(move);
+            default -> makeMove(move);
+        }
+        move.getMovingPiece().setHasMoved(true);
+    }
+
+    // undo a move performed with playMove(Move, ...)
+    public void takeBackMove(Move move) {
+        if (move.isFirstMoveOfPiece()) {
+            move.getMovingPiece().setHasMoved(false);
+        }
+        switch (move.getMoveType()) {
+            case CASTLING -> undoCastling(move);
+            case EN_PASSANT -> undoEnPassant(move);
+            default -> undoMove(move);
+        }
+        popState();
+    }
+
+    // perform an encoded move that is known to be legal, see EncodedMove
+    // the pieces it removes are kept on a stack until takeBackMove(int) puts them back
+    public void playMove(int move) {
+        pushState(EncodedMove.getFrom(move), EncodedMove.getTo(move), EncodedMove.isDoublePawnPush(move));
+        Square fromSquare = getSquare(EncodedMove.getFrom(move));
+        Square toSquare = getSquare(EncodedMove.getTo(move));
+        Piece movingPiece = fromSquare.getPiece();
+        if (removedCount + 2 > removedPieces.length) {
+            removedPieces = Arrays.copyOf(removedPieces, removedPieces.length * 2);
+        }
+        Square capturedSquare = getSquare(EncodedMove.getCapturedSquare(move));
+        removedPieces[removedCount++] = capturedSquare.getPiece();
+        setPiece(capturedSquare, null);
+        PieceType promotion = EncodedMove.getPromotion(move);
+        if (promotion != null) {
+            removedPieces[removedCount++] = movingPiece;
+            setPiece(toSquare, createPiece(movingPiece.getColor(), promotion));
+        } else {
+            setPiece(toSquare, movingPiece);
+        }
+        setPiece(fromSquare, null);
+        if (EncodedMove.isCastling(move)) {
+            moveCastlingRook(fromSquare, toSquare, false);
+        }
+        movingPiece.setHasMoved(true);
+    }
+
+    // undo a move performed with playMove(int), moves must be taken back in the reverse order
+    public void takeBackMove(int move) {
+        Square fromSquare = getSquare(EncodedMove.getFrom(move));
+        Square toSquare = getSquare(EncodedMove.getTo(move));
+        if (EncodedMove.isCastling(move)) {
+            moveCastlingRook(fromSquare, toSquare, true);
+        }
+        Piece movingPiece = EncodedMove.isPromotion(move) ? removedPieces[--removedCount] : toSquare.getPiece();
+        Piece capturedPiece = removedPieces[--removedCount];
+        removedPieces[removedCount] = null;
+        removedPieces[removedCount + 1] = null;
+        setPiece(toSquare, null);
+        setPiece(fromSquare, movingPiece);
+        setPiece(getSquare(EncodedMove.getCapturedSquare(move)), capturedPiece);
+        if (EncodedMove.isFirstMoveOfPiece(move)) {
+            movingPiece.setHasMoved(false);
+        }
+        popState();
+    }
+
+    // saves the state for takeBackMove and updates it for a move from one square to another
+    private void pushState(int from, int to, boolean isDoublePawnPush) {
+        if (stateCount == states.length) {
+            states = Arrays.copyOf(states, stateCount * 2);
+        }
+        states[stateCount++] = castlingRights | ((enPassantSquare + 1) << 4);
+        castlingRights &= ~(castlingRightsOf(from) | castlingRightsOf(to));
+        enPassantSquare = isDoublePawnPush ? (from + to) >>> 1 : -1;
+    }
+
+    private void popState() {
+        int state = states[--stateCount];
+        castlingRights = state & 0xF;
+        enPassantSquare = (state >>> 4) - 1;
+    }
+
+    // the castling rights that need the piece on a square to stay there
+    // a king or rook leaving its home square, or a rook being captured on it, ends them
+    private static int castlingRightsOf(int square) {
+        return switch (square) {
+            case 60 -> Zobrist.CASTLING_WHITE_KINGSIDE | Zobrist.CASTLING_WHITE_QUEENSIDE; // e1
+            case 63 -> Zobrist.CASTLING_WHITE_KINGSIDE; // h1
+            case 56 -> Zobrist.CASTLING_WHITE_QUEENSIDE; // a1
+            case 4 -> Zobrist.CASTLING_BLACK_KINGSIDE | Zobrist.CASTLING_BLACK_QUEENSIDE; // e8
+            case 7 -> Zobrist.CASTLING_BLACK_KINGSIDE; // h8
+            case 0 -> Zobrist.CASTLING_BLACK_QUEENSIDE; // a8
+            default -> 0;
+        };
+    }
+
+    // the rook's part of castling, the king moves from kingFrom to kingTo
+    private void moveCastlingRook(Square kingFrom, Square kingTo, boolean undo) {
+        int fromX = kingFrom.getX();
+        boolean isKingside = kingFrom.getY() < kingTo.getY();
+        Square cornerSquare = getSquare(fromX, isKingside ? 7 : 0);
+        Square besideKingSquare = getSquare(fromX, isKingside ? 5 : 3);
+        if (undo) {
+            setPiece(cornerSquare, besideKingSquare.getPiece());
+            setPiece(besideKingSquare, null);
+        } else {
+            setPiece(besideKingSquare, cornerSquare.getPiece());
+            setPiece(cornerSquare, null);
+        }
+    }
+
     public void promotePawn(Move move, PieceType newType) {
         if (newType == null) {
             return;
@@ -199,8 +527,8 @@ public class Board {
             case ROOK -> newPiece = new Rook(move.getMovingPiece().getColor());
             case QUEEN -> newPiece = new Queen(move.getMovingPiece().getColor());
         }
-        move.getToSquare().setPiece(newPiece);
-        move.getFromSquare().setPiece(null);
+        setPiece(move.getToSquare(), newPiece);
+        setPiece(move.getFromSquare(), null);
     }
 
     public void performEnPassant(Move move) {
@@ -211,7 +539,7 @@ public class Board {
         // move pawn to destination
         makeMove(move);
         // remove pawn captured by en passant
-        getSquare(move.getToSquare().getX() - xDirection, move.getToSquare().getY()).setPiece(null);
+        setPiece(getSquare(move.getToSquare().getX() - xDirection, move.getToSquare().getY()), null);
     }
 
     public void performCastling(Move move) {
@@ -231,20 +559,20 @@ public class Board {
             newRookSquare = getSquare(fromX, 3);
         }
         // move rook to next to king
-        newRookSquare.setPiece(oldRookSquare.getPiece());
-        oldRookSquare.setPiece(null);
+        setPiece(newRookSquare, oldRookSquare.getPiece());
+        setPiece(oldRookSquare, null);
     }
 
     public void undoEnPassant(Move move) {
         // place moving pawn back to where it was
         undoMove(move);
         // removing excess pawn
-        move.getToSquare().setPiece(null);
+        setPiece(move.getToSquare(), null);
         // place captured pawn back to where it was
         int xDirection = (move.getMovingPiece().isWhite()) ? -1 : 1;
         int toX = move.getToSquare().getX();
         int toY = move.getToSquare().getY();
-        getSquare(toX - xDirection, toY).setPiece(move.getCapturedPiece());
+        setPiece(getSquare(toX - xDirection, toY), move.getCapturedPiece());
     }
 
     public void undoCastling(Move move) {
@@ -265,8 +593,8 @@ public class Board {
             newRookSquare = getSquare(fromX, 3);
         }
         // move rook back to the corner
-        oldRookSquare.setPiece(newRookSquare.getPiece());
-        newRookSquare.setPiece(null);
+        setPiece(oldRookSquare, newRookSquare.getPiece());
+        setPiece(newRookSquare, null);
     }
 
 
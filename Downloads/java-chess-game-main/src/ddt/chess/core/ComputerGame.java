@@ -1,53 +1,114 @@
 package ddt.chess.core;
 
+import ddt.chess.engine.MoveStrategy;
+import ddt.chess.engine.StockfishStrategy;
 import ddt.chess.util.Notation;
-import ddt.chess.util.Stockfish;
 import ddt.chess.util.TimerClock;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class ComputerGame extends Game {
+    // threads that wait for strategies, shared by every game
+    private static final ExecutorService SEARCH_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "computer-move");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     PieceColor playerSide;
-    String stockfishPath = "resources/stockfish/stockfish-ubuntu-x86-64-avx2";
-    Stockfish stockfish;
+    MoveStrategy strategy;
+    private CompletableFuture<Move> pendingComputerMove;
 
     public ComputerGame(PieceColor playerSide, int computerElo) {
-        super();
-        this.playerSide = playerSide;
-        stockfish = new Stockfish();
-        stockfish.startEngine(stockfishPath);
-        stockfish.setEloLevel(computerElo);
+        this(playerSide, new StockfishStrategy(computerElo));
     }
 
     // time format is hh:mm:ss
     public ComputerGame(PieceColor playerSide, String time, int computerElo) {
+        this(playerSide, time, new StockfishStrategy(computerElo));
+    }
+
+    // strategy decides the computer's moves, e.g. a StockfishStrategy or the in-process SearchEngine
+    public ComputerGame(PieceColor playerSide, MoveStrategy strategy) {
+        super();
+        this.playerSide = playerSide;
+        this.strategy = strategy;
+    }
+
+    public ComputerGame(PieceColor playerSide, String time, MoveStrategy strategy) {
         super(time);
         this.playerSide = playerSide;
-        stockfish = new Stockfish();
-        stockfish.startEngine(stockfishPath);
-        stockfish.setEloLevel(computerElo);
+        this.strategy = strategy;
     }
 
+    // blocks until the strategy has found its move, see requestComputerMove for the non-blocking version
+    // throws IllegalStateException if the strategy fails although there are legal moves
     public Move executeComputerMove() {
-        int waitTime;
-        String fen = Notation.gameToFEN(this);
-        String bestMoveString;
-        if (isTimedGame()) {
-            bestMoveString = stockfish.getBestMoveWithTimeManagement(fen, getWhiteClock().getRemainingTimeMillis(), getBlackClock().getRemainingTimeMillis());
-        } else {
-            bestMoveString = stockfish.getBestMove(Notation.gameToFEN(this), 3000);
+        return applyComputerMove(strategy.findBestMove(this));
+    }
+
+    /**
+     * Let the computer think without blocking the caller
+     * Until the future completes the game must not be changed, see isComputerThinking
+     * If the strategy fails (e.g. Stockfish died) the error is printed and the future completes exceptionally
+     * @param applyExecutor Executor of the thread that owns the game, e.g. SwingUtilities::invokeLater,
+     *                      the move is made there so it never races with the owner reading the game
+     * @return Future completed with the computer's move (null if it has none), cancel it to stop the search
+     */
+    public synchronized CompletableFuture<Move> requestComputerMove(Executor applyExecutor) {
+        if (isComputerThinking()) {
+            throw new IllegalStateException("The computer is already thinking");
         }
-        Move computerMove = Notation.stockfishOutputToMove(getBoard(), bestMoveString);
-        if (bestMoveString.length() == 5) {
-            PieceType promoteTo = Notation.getPieceTypeFromLetter(bestMoveString.charAt(4));
-            getBoard().promotePawn(computerMove, promoteTo);
-            getHistory().addMove(getBoard(), computerMove);
-            if (isTimedGame()) {
-                switchClocks();
+        CompletableFuture<Move> res = CompletableFuture
+                .supplyAsync(() -> strategy.findBestMove(this), SEARCH_EXECUTOR)
+                .thenApplyAsync(bestMoveString -> {
+                    Move move = applyComputerMove(bestMoveString);
+                    // think on the player's time while they choose a move
+                    strategy.ponder(this);
+                    return move;
+                }, applyExecutor);
+        res.whenComplete((move, e) -> {
+            if (res.isCancelled()) {
+                strategy.stop();
+            } else if (e != null) {
+                // callers usually only chain thenAccept, without this the computer would silently never move
+                Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+                System.err.println("Error finding the computer's move: " + cause);
+            }
+        });
+        pendingComputerMove = res;
+        return res;
+    }
+
+    // stops a computer move requested with requestComputerMove, the game is left unchanged
+    public synchronized void cancelComputerMove() {
+        if (pendingComputerMove != null) {
+            pendingComputerMove.cancel(false);
+            pendingComputerMove = null;
+        }
+    }
+
+    public synchronized boolean isComputerThinking() {
+        return pendingComputerMove != null && !pendingComputerMove.isDone();
+    }
+
+    private Move applyComputerMove(String bestMoveString) {
+        if (bestMoveString == null) {
+            if (getLegalMoves().isEmpty()) {
+                // no legal move, the game is over
+                return null;
             }
-            updateHalfMoves(computerMove);
-            switchTurns();
-        } else {
-            makeMove(computerMove);
+            // the strategy gave up, e.g. Stockfish died or did not answer in time
+            throw new IllegalStateException("The computer found no move in a position with legal moves");
         }
+        Move computerMove = Notation.stockfishOutputToMove(getBoard(), bestMoveString);
+        PieceType promoteTo = (bestMoveString.length() == 5)
+                ? Notation.getPieceTypeFromLetter(Character.toUpperCase(bestMoveString.charAt(4))) : null;
+        makeMove(computerMove, promoteTo);
         return computerMove;
     }
 
@@ -63,4 +124,8 @@ public class ComputerGame extends Game {
         return playerSide;
     }
 
+    public MoveStrategy getStrategy() {
+        return strategy;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+package ddt.chess.core;
+
+// a move packed into an int, for move generation and search where a Move object per move is too expensive
+// bits  0- 5: to square (bitboard index x * 8 + y, see Board)
+// bits  6-11: from square
+// bits 12-14: promotion piece, PieceType.ordinal() + 1 (0 if none)
+// bits 15-17: captured piece, PieceType.ordinal() + 1 (0 if none)
+// bits 18-20: moving piece, PieceType.ordinal()
+// bits 21-24: flags
+// bits 25-26: free, Notation keeps the SAN disambiguation there
+// the low 16 bits (from, to and promotion) are enough to tell the moves of one position apart,
+// the low 12 bits are from * 64 + to
+public class EncodedMove {
+    public static final int NONE = 0; // from and to are never the same square in a real move
+
+    public static final int EN_PASSANT = 1 << 21;
+    public static final int CASTLING = 1 << 22;
+    public static final int DOUBLE_PAWN_PUSH = 1 << 23;
+    public static final int FIRST_MOVE = 1 << 24; // the moving piece had not moved before
+
+    private static final int FROM_SHIFT = 6;
+    private static final int PROMOTION_SHIFT = 12;
+    private static final int CAPTURED_SHIFT = 15;
+    private static final int MOVING_SHIFT = 18;
+
+    private static final PieceType[] TYPES = PieceType.values();
+
+    // promotion and captured are null when there is none
+    public static int encode(int from, int to, PieceType moving, PieceType captured, PieceType promotion, int flags) {
+        return to
+                | (from << FROM_SHIFT)
+                | ((promotion == null) ? 0 : (promotion.ordinal() + 1) << PROMOTION_SHIFT)
+                | ((captured == null) ? 0 : (captured.ordinal() + 1) << CAPTURED_SHIFT)
+                | (moving.ordinal() << MOVING_SHIFT)
+                | flags;
+    }
+
+    public static int getFrom(int move) {
+        return (move >>> FROM_SHIFT) & 0x3F;
+    }
+
+    public static int getTo(int move) {
+        return move & 0x3F;
+    }
+
+    // from * 64 + to
+    public static int getFromTo(int move) {
+        return move & 0xFFF;
+    }
+
+    public static PieceType getPromotion(int move) {
+        int type = (move >>> PROMOTION_SHIFT) & 0x7;
+        return (type == 0) ? null : TYPES[type - 1];
+    }
+
+    public static PieceType getCaptured(int move) {
+        int type = (move >>> CAPTURED_SHIFT) & 0x7;
+        return (type == 0) ? null : TYPES[type - 1];
+    }
+
+    public static PieceType getMoving(int move) {
+        return TYPES[(move >>> MOVING_SHIFT) & 0x7];
+    }
+
+    public static boolean isCapture(int move) {
+        return (move & (0x7 << CAPTURED_SHIFT)) != 0;
+    }
+
+    public static boolean isPromotion(int move) {
+        return (move & (0x7 << PROMOTION_SHIFT)) != 0;
+    }
+
+    public static boolean isEnPassant(int move) {
+        return (move & EN_PASSANT) != 0;
+    }
+
+    public static boolean isCastling(int move) {
+        return (move & CASTLING) != 0;
+    }
+
+    public static boolean isDoublePawnPush(int move) {
+        return (move & DOUBLE_PAWN_PUSH) != 0;
+    }
+
+    public static boolean isFirstMoveOfPiece(int move) {
+        return (move & FIRST_MOVE) != 0;
+    }
+
+    // square of the captured piece, which is not the destination for en passant
+    public static int getCapturedSquare(int move) {
+        if (!isEnPassant(move)) {
+            return getTo(move);
+        }
+        // the passed pawn stands beside the moving pawn, on the from rank and the to file
+        return (getFrom(move) & ~7) | (getTo(move) & 7);
+    }
+
+    // square a pawn can capture en passant on after this move, -1 if the move is not a double pawn push
+    public static int getEnPassantSquareAfter(int move) {
+        return isDoublePawnPush(move) ? (getFrom(move) + getTo(move)) >>> 1 : -1;
+    }
+
+    /**
+     * Encode a Move, its board must still be in the position before the move
+     * @param move Move to encode
+     * @param promotion Piece a promoting pawn turns into (queen if null)
+     * @return Encoded move
+     */
+    public static int fromMove(Move move, PieceType promotion) {
+        int from = Board.squareIndex(move.getFromSquare());
+        int to = Board.squareIndex(move.getToSquare());
+        Piece movingPiece = move.getMovingPiece();
+        PieceType moving = movingPiece.getType();
+        PieceType captured = move.isCapture() ? move.getCapturedPiece().getType() : null;
+        int flags = move.isFirstMoveOfPiece() ? FIRST_MOVE : 0;
+        PieceType promotionType = null;
+        if (moving == PieceType.KING && move.getFromSquare().yDistanceTo(move.getToSquare()) == 2) {
+            flags |= CASTLING;
+        } else if (moving == PieceType.PAWN) {
+            if (move.getFromSquare().xDistanceTo(move.getToSquare()) == 2) {
+                flags |= DOUBLE_PAWN_PUSH;
+            } else if (move.getToSquare().isEmpty() && move.getFromSquare().getY() != move.getToSquare().getY()) {
+                flags |= EN_PASSANT;
+                captured = PieceType.PAWN;
+            }
+            if (MoveValidator.isValidPromotion(move)) {
+                promotionType = (promotion == null) ? PieceType.QUEEN : promotion;
+            }
+        }
+        return encode(from, to, moving, captured, promotionType, flags);
+    }
+
+    /**
+     * Decode a move into a Move of the given board, the board must still be in the position before the move
+     * the promotion piece is not part of Move, pass getPromotion(move) to Board.playMove
+     * @param board Board the move is played on
+     * @param move Encoded move
+     * @return Move between the squares of the board
+     */
+    public static Move toMove(Board board, int move) {
+        return new Move(board.getSquare(getFrom(move)), board.getSquare(getTo(move)));
+    }
+
+    // long algebraic notation as used by UCI, e.g. e2e4 or e7e8q
+    public static String toUci(int move) {
+        StringBuilder res = new StringBuilder(5);
+        appendSquare(res, getFrom(move));
+        appendSquare(res, getTo(move));
+        PieceType promotion = getPromotion(move);
+        if (promotion != null) {
+            res.append(promotion.getPieceLetter());
+        }
+        return res.toString();
+    }
+
+    // same as Notation.squareToNotation
+    private static void appendSquare(StringBuilder res, int square) {
+        res.append((char) ('a' + (square & 7))).append((char) ('1' + (7 - (square >>> 3))));
+    }
+}
@@ -0,0 +1,275 @@
+package ddt.chess.core;
+
+import java.nio.ByteBuffer;
+
+// reads FEN into a Board one character at a time, without splitting the text or building strings
+// a parser can be reused for any number of positions, it keeps the fields of the last one it read
+// castling rights and the en passant square are set on the board with the pieces
+public class FenParser {
+    // the FEN being read, either text or bytes
+    private CharSequence text;
+    private ByteBuffer bytes;
+    private int position;
+    private int end;
+
+    // fields of the last position read
+    private PieceColor turn;
+    private int castlingRights; // bitmask of Zobrist.CASTLING_* flags
+    private int enPassantSquare; // bitboard index, -1 if there is none
+    private int halfMoves;
+    private int fullMoves;
+
+    /**
+     * Read a position into a board, replacing the pieces on it
+     * @param fen The FEN, the halfmove and fullmove fields may be left out
+     * @param board Board to set up
+     * @throws IllegalArgumentException If the FEN is malformed, the board is then left in an unknown state
+     */
+    public void parse(CharSequence fen, Board board) {
+        text = fen;
+        position = 0;
+        end = fen.length();
+        try {
+            parse(board);
+        } finally {
+            text = null;
+        }
+    }
+
+    /**
+     * Read a position from bytes into a board, e.g. from a memory-mapped file of one FEN per line
+     * The buffer position is moved past the line, so consecutive calls read consecutive lines
+     * @param fen Buffer positioned at the start of a FEN
+     * @param board Board to set up
+     * @throws IllegalArgumentException If the FEN is malformed, the board is then left in an unknown state
+     */
+    public void parse(ByteBuffer fen, Board board) {
+        bytes = fen;
+        position = fen.position();
+        end = fen.limit();
+        try {
+            parse(board);
+            // the rest of the line
+            while (position < end && charAt(position) != '\n') {
+                position++;
+            }
+            fen.position(Math.min(position + 1, end));
+        } finally {
+            bytes = null;
+        }
+    }
+
+    private char charAt(int index) {
+        return (text != null) ? text.charAt(index) : (char) (bytes.get(index) & 0xFF);
+    }
+
+    private void parse(Board board) {
+        skipSpaces();
+        readPlacement(board);
+        expectSpace();
+        turn = switch (next()) {
+            case 'w' -> PieceColor.WHITE;
+            case 'b' -> PieceColor.BLACK;
+            default -> throw invalid("side to move");
+        };
+        expectSpace();
+        readCastlingRights();
+        expectSpace();
+        readEnPassantSquare();
+        // the move counters are optional, as in EPD
+        halfMoves = 0;
+        fullMoves = 1;
+        skipSpaces();
+        if (position < end && isDigit(charAt(position))) {
+            halfMoves = readNumber();
+            skipSpaces();
+            if (position < end && isDigit(charAt(position))) {
+                fullMoves = Math.max(1, readNumber());
+            }
+        }
+        // a right without its king and rook on their home squares could never be used
+        board.setCastlingRights(castlingRights & castlingRightsInPlace(board));
+        board.setEnPassantSquare(enPassantSquare);
+    }
+
+    private void readPlacement(Board board) {
+        board.emptyBoard();
+        int x = 0;
+        int y = 0;
+        while (position < end) {
+            char c = charAt(position);
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            position++;
+            if (c == '/') {
+                if (y != 8 || ++x > 7) {
+                    throw invalid("piece placement");
+                }
+                y = 0;
+            } else if (c >= '1' && c <= '8') {
+                y += c - '0';
+                if (y > 8) {
+                    throw invalid("piece placement");
+                }
+            } else {
+                PieceType type = pieceType(c);
+                if (type == null || y > 7) {
+                    throw invalid("piece placement");
+                }
+                PieceColor color = (c < 'a') ? PieceColor.WHITE : PieceColor.BLACK;
+                Piece piece = Board.createPiece(color, type);
+                if (type == PieceType.PAWN) {
+                    // a pawn off its starting rank has moved, the rank decides whether it may push two squares
+                    piece.setHasMoved(x != ((color == PieceColor.WHITE) ? 6 : 1));
+                }
+                board.setPiece(board.getSquare(x, y), piece);
+                y++;
+            }
+        }
+        if (x != 7 || y != 8) {
+            throw invalid("piece placement");
+        }
+    }
+
+    private void readCastlingRights() {
+        castlingRights = 0;
+        if (position < end && charAt(position) == '-') {
+            position++;
+            return;
+        }
+        int start = position;
+        while (position < end) {
+            int right = switch (charAt(position)) {
+                case 'K' -> Zobrist.CASTLING_WHITE_KINGSIDE;
+                case 'Q' -> Zobrist.CASTLING_WHITE_QUEENSIDE;
+                case 'k' -> Zobrist.CASTLING_BLACK_KINGSIDE;
+                case 'q' -> Zobrist.CASTLING_BLACK_QUEENSIDE;
+                default -> 0;
+            };
+            if (right == 0) {
+                break;
+            }
+            castlingRights |= right;
+            position++;
+        }
+        if (position == start) {
+            throw invalid("castling rights");
+        }
+    }
+
+    private void readEnPassantSquare() {
+        char file = next();
+        if (file == '-') {
+            enPassantSquare = -1;
+            return;
+        }
+        char rank = next();
+        if (file < 'a' || file > 'h' || (rank != '3' && rank != '6')) {
+            throw invalid("en passant square");
+        }
+        enPassantSquare = (7 - (rank - '1')) * 8 + (file - 'a');
+    }
+
+    // the castling rights whose king and rook stand on their home squares
+    private static int castlingRightsInPlace(Board board) {
+        int rights = 0;
+        if (isPiece(board, 7 * 8 + 4, PieceColor.WHITE, PieceType.KING)) {
+            if (isPiece(board, 7 * 8 + 7, PieceColor.WHITE, PieceType.ROOK)) {
+                rights |= Zobrist.CASTLING_WHITE_KINGSIDE;
+            }
+            if (isPiece(board, 7 * 8, PieceColor.WHITE, PieceType.ROOK)) {
+                rights |= Zobrist.CASTLING_WHITE_QUEENSIDE;
+            }
+        }
+        if (isPiece(board, 4, PieceColor.BLACK, PieceType.KING)) {
+            if (isPiece(board, 7, PieceColor.BLACK, PieceType.ROOK)) {
+                rights |= Zobrist.CASTLING_BLACK_KINGSIDE;
+            }
+            if (isPiece(board, 0, PieceColor.BLACK, PieceType.ROOK)) {
+                rights |= Zobrist.CASTLING_BLACK_QUEENSIDE;
+            }
+        }
+        return rights;
+    }
+
+    private static boolean isPiece(Board board, int index, PieceColor color, PieceType type) {
+        Piece piece = board.getSquare(index).getPiece();
+        return piece != null && piece.getColor() == color && piece.getType() == type;
+    }
+
+    private static PieceType pieceType(char c) {
+        return switch (Character.toLowerCase(c)) {
+            case 'p' -> PieceType.PAWN;
+            case 'n' -> PieceType.KNIGHT;
+            case 'b' -> PieceType.BISHOP;
+            case 'r' -> PieceType.ROOK;
+            case 'q' -> PieceType.QUEEN;
+            case 'k' -> PieceType.KING;
+            default -> null;
+        };
+    }
+
+    private char next() {
+        if (position >= end) {
+            throw invalid("length");
+        }
+        return charAt(position++);
+    }
+
+    private void expectSpace() {
+        if (position >= end || charAt(position) != ' ') {
+            throw invalid("field separator");
+        }
+        skipSpaces();
+    }
+
+    private void skipSpaces() {
+        while (position < end && charAt(position) == ' ') {
+            position++;
+        }
+    }
+
+    private int readNumber() {
+        int res = 0;
+        while (position < end && isDigit(charAt(position))) {
+            res = res * 10 + (charAt(position++) - '0');
+        }
+        return res;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private IllegalArgumentException invalid(String field) {
+        return new IllegalArgumentException("Invalid FEN, bad " + field + " at character " + position);
+    }
+
+    public PieceColor getTurn() {
+        return turn;
+    }
+
+    // bitmask of Zobrist.CASTLING_* flags
+    public int getCastlingRights() {
+        return castlingRights;
+    }
+
+    // bitboard index of the en passant target square, -1 if there is none
+    public int getEnPassantSquare() {
+        return enPassantSquare;
+    }
+
+    public int getHalfMoves() {
+        return halfMoves;
+    }
+
+    public int getFullMoves() {
+        return fullMoves;
+    }
+
+    // number of half moves played before the position, as counted from the fullmove number
+    public int getPly() {
+        return (fullMoves - 1) * 2 + ((turn == PieceColor.BLACK) ? 1 : 0);
+    }
+}
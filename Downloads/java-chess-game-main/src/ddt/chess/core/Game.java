@@ -2,6 +2,7 @@ package ddt.chess.core;
 import ddt.chess.util.Notation;
 import ddt.chess.util.TimerClock;
 
+import java.util.Arrays;
 import java.util.Timer;
 
 public class Game {
@@ -15,14 +16,46 @@ public class Game {
 
     private PieceColor turn = PieceColor.WHITE;
     private int halfMoves = 0; // tracking for 50 move rule, draw if it reaches 100
+    private String startingFEN; // FEN the game was loaded from, null if it started from the starting position
+
+    private long zobristKey; // see getZobristKey
+
+    // undo stack, one entry per move of the history with the halfmove clock and key before the move,
+    // so undoing a move restores them without looking at the rest of the history
+    // castling rights and the en passant square are kept and restored by the board
+    private int[] undoHalfMoves = new int[64];
+    private long[] undoKeys = new long[64];
+    private int undoSize = 0;
+
+    // legal moves of each position on the undo stack, generated the first time they are needed:
+    // the list at index i is for the position after i moves, an undo goes back to a list that is still valid
+    private IntMoveList[] legalMoveLists = new IntMoveList[64];
+    private boolean[] legalMovesGenerated = new boolean[64];
+
+    // FEN of the position, kept until a move, undo or reset changes the position it was made for
+    // the position key covers the pieces, side to move and castling rights, the rest of the FEN is compared on its own
+    private final StringBuilder fenBuilder = new StringBuilder(96);
+    private String cachedFEN;
+    private long cachedFENKey;
+    private int cachedFENEnPassantSquare;
+    private int cachedFENHistorySize;
+    private int cachedFENHalfMoves;
 
     private String winner; // "white", "black" (winning) or "none" (draw)
-    private String gameOverCause; // "checkmate", "50" (fifty move rule), "stalemate", "time"
+    private String gameOverCause; // "checkmate", "50" (fifty move rule), "stalemate", "repetition", "material", "time"
+
+    // status of the current position, worked out the first time it is asked for and kept until a move,
+    // undo or reset, so polling isOver (e.g. from a timer) costs nothing after that
+    private boolean statusValid = false;
+    private boolean inCheck;
+    private String positionWinner; // winner by the position alone, null while the game goes on
+    private String positionCause; // "checkmate", "stalemate", "repetition", "50" or "material", null while the game goes on
 
     public Game() {
         board = new Board();
         board.setupPieces();
         history = new MoveHistory();
+        resetPositionState();
     }
 
     // timed game
@@ -30,6 +63,7 @@ public class Game {
         board = new Board();
         board.setupPieces();
         history = new MoveHistory();
+        resetPositionState();
         this.whiteClock = new TimerClock(whiteTime);
         whiteTimerThread = new Thread(whiteClock);
         this.blackClock = new TimerClock(blackTime);
@@ -41,10 +75,18 @@ public class Game {
         blackClock.pause();
     }
 
+    // the position of a FEN, see loadFEN
+    public static Game fromFEN(CharSequence fen) {
+        Game res = new Game();
+        res.loadFEN(fen);
+        return res;
+    }
+
     public Game(String time) {
         board = new Board();
         board.setupPieces();
         history = new MoveHistory();
+        resetPositionState();
 
         this.whiteClock = new TimerClock(time);
         whiteTimerThread = new Thread(whiteClock);
@@ -58,77 +100,155 @@ public class Game {
     }
 
     public boolean makeMove(Move move) {
+        return makeMove(move, null);
+    }
+
+    /**
+     * Play a move if it is legal
+     * @param move The move
+     * @param promotion Piece a promoting pawn turns into, null to ask with askForPromotion
+     * @return True if the move was played
+     */
+    public boolean makeMove(Move move, PieceType promotion) {
         // check if piece color aligns with turn
-        if (move.getMovingPiece() != null && move.getMovingPiece().getColor() == turn) {
-            // check if move is valid
-            if (MoveValidator.isValidMove(board, move, history)) {
-                // determine type of move and perform corresponding methods in Board if valid
-                if (MoveValidator.isValidCastling(board, move)) {
-                    // set move type
-                    move.setMoveType(MoveType.CASTLING);
-                    board.performCastling(move);
-                } else if (MoveValidator.isValidPromotion(move)) {
-                    move.setMoveType(MoveType.PROMOTION);
-                    PieceType promoteToPiece = askForPromotion();
-                    // skip if askForPromotion() return null
-                    // (happens when it's unimplemented or the promotion is cancelled)
-                    if (promoteToPiece == null) {
-                        return false;
-                    }
-                    board.promotePawn(move, promoteToPiece);
-                } else if (MoveValidator.isValidEnPassant(board, move, history)) {
-                    // set move type
-                    move.setMoveType(MoveType.EN_PASSANT);
-                    board.performEnPassant(move);
-                } else {
-                    // set move type
-                    if (move.isCapture()) {
-                        move.setMoveType(MoveType.CAPTURE);
-                    } else {
-                        move.setMoveType(MoveType.NORMAL);
-                    }
-                    board.makeMove(move);
-                }
-                // set hasMoved to true
-                move.getMovingPiece().setHasMoved(true);
-            } else {
-                // is invalid move
+        if (move.getMovingPiece() == null || move.getMovingPiece().getColor() != turn) {
+            return false;
+        }
+        // look the move up among the legal moves, which also tells its type
+        IntMoveList legalMoves = getLegalMoves();
+        int fromTo = Board.squareIndex(move.getFromSquare()) * 64 + Board.squareIndex(move.getToSquare());
+        int legalMove = findLegalMove(legalMoves, fromTo, null);
+        if (legalMove == EncodedMove.NONE) {
+            return false;
+        }
+        if (EncodedMove.isPromotion(legalMove)) {
+            PieceType promoteToPiece = (promotion != null) ? promotion : askForPromotion();
+            // skip if askForPromotion() return null
+            // (happens when it's unimplemented or the promotion is cancelled)
+            if (promoteToPiece == null) {
                 return false;
             }
-            // add move to history
-            history.addMove(board, move);
-            // start/switch timers
-            if (isTimedGame()) {
-                switchClocks();
+            legalMove = findLegalMove(legalMoves, fromTo, promoteToPiece);
+            if (legalMove == EncodedMove.NONE) {
+                return false;
             }
-            // update half move count, reset if moving piece is a pawn or a capture, else increment
-            updateHalfMoves(move);
-            // switch turns
-            switchTurns();
-            // is valid move
-            return true;
         }
-        // if wrong turn then is invalid move
-        return false;
+        // the notation of the move is written from the position before it
+        int notationMove = Notation.disambiguate(legalMove, legalMoves);
+        // perform the move as the generator classified it, the board also updates castling rights and en passant
+        board.playMove(move, legalMove);
+        // add move to history
+        pushUndoState();
+        history.addMove(move, notationMove);
+        // start/switch timers
+        if (isTimedGame()) {
+            switchClocks();
+        }
+        // update half move count, reset if moving piece is a pawn or a capture, else increment
+        updateHalfMoves(move);
+        // switch turns
+        switchTurns();
+        zobristKey = Zobrist.positionKey(board, turn, board.getEnPassantSquare());
+        statusValid = false;
+        // is valid move
+        return true;
+    }
+
+    // the legal move with these from and to squares (from * 64 + to) and promotion piece, EncodedMove.NONE if none
+    // a null promotion matches any piece, the four promotions of a pawn move are generated next to each other
+    private static int findLegalMove(IntMoveList legalMoves, int fromTo, PieceType promotion) {
+        int index = legalMoves.indexOfFromTo(fromTo);
+        if (index == -1) {
+            return EncodedMove.NONE;
+        }
+        for (; index < legalMoves.size() && EncodedMove.getFromTo(legalMoves.get(index)) == fromTo; index++) {
+            int move = legalMoves.get(index);
+            if (promotion == null || EncodedMove.getPromotion(move) == promotion) {
+                return move;
+            }
+        }
+        return EncodedMove.NONE;
+    }
+
+    /**
+     * Legal moves of the current position, generated once and reused until a move, undo or reset changes it
+     * @return Encoded moves, see EncodedMove, one per promotion piece; the list must not be changed
+     */
+    public IntMoveList getLegalMoves() {
+        if (!legalMovesGenerated[undoSize]) {
+            if (legalMoveLists[undoSize] == null) {
+                legalMoveLists[undoSize] = new IntMoveList();
+            }
+            board.generateAllValidMoves(turn, board.getEnPassantSquare(), legalMoveLists[undoSize]);
+            legalMovesGenerated[undoSize] = true;
+        }
+        return legalMoveLists[undoSize];
+    }
+
+    /**
+     * Set up the position of a FEN, the history is cleared and continues from that position
+     * @param fen The FEN, the halfmove and fullmove fields may be left out
+     * @throws IllegalArgumentException If the FEN is malformed
+     */
+    public void loadFEN(CharSequence fen) {
+        FenParser parser = new FenParser();
+        try {
+            parser.parse(fen, board);
+        } catch (IllegalArgumentException e) {
+            // do not leave a half-read board behind
+            resetBoard();
+            throw e;
+        }
+        history.resetHistory();
+        history.setStartingPly(parser.getPly());
+        turn = parser.getTurn();
+        halfMoves = parser.getHalfMoves();
+        startingFEN = fen.toString();
+        resetPositionState();
+        // the fullmove number may differ with the same position and history size
+        cachedFEN = null;
+        winner = null;
+        gameOverCause = null;
     }
 
     public void undoLastMove() {
         if (!history.isEmpty()) {
             // switch turns back
             switchTurns();
-            Move lastMove = history.getLastMove();
-            // restore hasMoved flag
-            if (lastMove.isFirstMoveOfPiece()) {
-                lastMove.getMovingPiece().setHasMoved(false);
-            }
-            switch (lastMove.getMoveType()) {
-                case CASTLING -> board.undoCastling(lastMove);
-                case EN_PASSANT -> board.undoEnPassant(lastMove);
-                default -> board.undoMove(lastMove);
-            }
+            // also restores the hasMoved flag, castling rights and en passant square
+            board.takeBackMove(history.getLastMove());
             history.undoLastMove();
-            restoreHalfMoves();
+            popUndoState();
+            statusValid = false;
+        }
+    }
+
+    private void pushUndoState() {
+        if (undoSize + 1 == undoHalfMoves.length) {
+            undoHalfMoves = Arrays.copyOf(undoHalfMoves, undoHalfMoves.length * 2);
+            undoKeys = Arrays.copyOf(undoKeys, undoKeys.length * 2);
+            legalMoveLists = Arrays.copyOf(legalMoveLists, legalMoveLists.length * 2);
+            legalMovesGenerated = Arrays.copyOf(legalMovesGenerated, legalMovesGenerated.length * 2);
         }
+        undoHalfMoves[undoSize] = halfMoves;
+        undoKeys[undoSize] = zobristKey;
+        undoSize++;
+        // a new position, whatever was generated at this depth before belongs to another line
+        legalMovesGenerated[undoSize] = false;
+    }
+
+    private void popUndoState() {
+        undoSize--;
+        halfMoves = undoHalfMoves[undoSize];
+        zobristKey = undoKeys[undoSize];
+    }
+
+    // after the board was set up, from the starting position or a FEN
+    private void resetPositionState() {
+        zobristKey = Zobrist.positionKey(board, turn, board.getEnPassantSquare());
+        undoSize = 0;
+        legalMovesGenerated[0] = false;
+        statusValid = false;
     }
 
     public void switchClocks() {
@@ -145,6 +265,11 @@ public class Game {
         return board;
     }
 
+    // FEN of the position before the first move of the history, null for the usual starting position
+    public String getStartingFEN() {
+        return startingFEN;
+    }
+
     public MoveHistory getHistory() {
         return history;
     }
@@ -153,42 +278,119 @@ public class Game {
         return turn;
     }
 
-    public boolean isCheckMate() {
-        // has to be in check to be a checkmate
-        if (!board.isCheck(turn)) {
-            return false;
-        }
-        // if there is no valid move then it's checkmate
-        if (board.generateAllValidNormalMoves(turn).isEmpty()) {
-            return true;
+    // 64-bit hash of the position: piece placement, side to move, castling rights and en passant
+    // computed once per move, undoing a move takes it back from the undo stack
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
+    // bitmask of Zobrist.CASTLING_* flags, see Board.getCastlingRights
+    public int getCastlingRights() {
+        return board.getCastlingRights();
+    }
+
+    // bitboard index of the en passant target square, -1 if the last move was not a double pawn push
+    public int getEnPassantSquare() {
+        return board.getEnPassantSquare();
+    }
+
+    // FEN of the position, built again only after the position has changed
+    public synchronized String getFEN() {
+        int historySize = history.getSize();
+        // the key only counts an en passant square a pawn can capture on, the FEN writes it after any double push
+        int enPassantSquare = board.getEnPassantSquare();
+        if (cachedFEN == null || zobristKey != cachedFENKey || enPassantSquare != cachedFENEnPassantSquare
+                || historySize != cachedFENHistorySize || halfMoves != cachedFENHalfMoves) {
+            fenBuilder.setLength(0);
+            Notation.appendFEN(this, fenBuilder);
+            cachedFEN = fenBuilder.toString();
+            cachedFENKey = zobristKey;
+            cachedFENEnPassantSquare = enPassantSquare;
+            cachedFENHistorySize = historySize;
+            cachedFENHalfMoves = halfMoves;
         }
-        return false;
+        return cachedFEN;
     }
 
-    public boolean isStalemate() {
-        // has to not be in check to be a stalemate
-        if (board.isCheck(turn)) {
-            return false;
+    // works out the status of the position if a move, undo or reset has changed it
+    private void updateStatus() {
+        if (statusValid) {
+            return;
         }
-        // if there is no valid move then it's stalemate
-        if (board.generateAllValidNormalMoves(turn).isEmpty()) {
-            return true;
+        inCheck = board.isCheck(turn);
+        boolean noLegalMove = getLegalMoves().isEmpty();
+        if (noLegalMove && inCheck) {
+            positionWinner = (turn == PieceColor.WHITE) ? "black" : "white";
+            positionCause = "checkmate";
+        } else if (noLegalMove) {
+            positionWinner = "none";
+            positionCause = "stalemate";
+        } else if (countRepetitions() >= 2) {
+            positionWinner = "none";
+            positionCause = "repetition";
+        } else if (halfMoves == 100) {
+            positionWinner = "none";
+            positionCause = "50";
+        } else if (board.isInsufficientMaterial()) {
+            positionWinner = "none";
+            positionCause = "material";
+        } else {
+            positionWinner = null;
+            positionCause = null;
         }
-        return false;
+        statusValid = true;
+    }
+
+    // how many times the position occurred before, looking back on the undo stack only as far as the last
+    // pawn move or capture, since no earlier position can come back; only every other key has the same side to move
+    public int countRepetitions() {
+        int res = 0;
+        int oldest = Math.max(0, undoSize - halfMoves);
+        for (int i = undoSize - 2; i >= oldest; i -= 2) {
+            if (undoKeys[i] == zobristKey) {
+                res++;
+            }
+        }
+        return res;
+    }
+
+    // the position occurred three times, counting this one
+    public boolean isThreefoldRepetition() {
+        updateStatus();
+        return "repetition".equals(positionCause);
+    }
+
+    // the side to move is in check
+    public boolean isCheck() {
+        updateStatus();
+        return inCheck;
+    }
+
+    public int getLegalMoveCount() {
+        return getLegalMoves().size();
+    }
+
+    public boolean isCheckMate() {
+        updateStatus();
+        return "checkmate".equals(positionCause);
+    }
+
+    public boolean isStalemate() {
+        updateStatus();
+        return "stalemate".equals(positionCause);
+    }
+
+    // neither side has the pieces left to checkmate, see Board.isInsufficientMaterial
+    public boolean isInsufficientMaterial() {
+        updateStatus();
+        return "material".equals(positionCause);
     }
 
     public boolean isOver() {
-        if (isCheckMate()) {
-            winner = (turn == PieceColor.WHITE) ? "black" : "white";
-            gameOverCause = "checkmate";
-            return true;
-        } else if (isStalemate()) {
-            winner = "none";
-            gameOverCause = "stalemate";
-            return true;
-        } else if (halfMoves == 100) {
-            winner = "none";
-            gameOverCause = "50";
+        updateStatus();
+        if (positionCause != null) {
+            winner = positionWinner;
+            gameOverCause = positionCause;
             return true;
         } else if (isTimedGame()) {
             if (blackClock.isFinished()) {
@@ -215,6 +417,10 @@ public class Game {
         board.emptyBoard();
         board.setupPieces();
         turn = PieceColor.WHITE;
+        halfMoves = 0;
+        startingFEN = null;
+        resetPositionState();
+        cachedFEN = null;
     }
 
     public void switchTurns() {
@@ -255,13 +461,5 @@ public class Game {
         return gameOverCause;
     }
 
-    public void restoreHalfMoves() {
-        // expensive way of doing it but will improve later
-        halfMoves = 0;
-        for (Move move : history.getHistory()) {
-            updateHalfMoves(move);
-        }
-    }
-
 
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package ddt.chess.core;
+
+import java.util.Arrays;
+
+// growable list of encoded moves (see EncodedMove)
+// meant to be kept and cleared for every position instead of allocating a new list,
+// e.g. one list per ply of a search
+public class IntMoveList {
+    // no position has more than 218 legal moves
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private int[] moves;
+    private int size;
+
+    public IntMoveList() {
+        moves = new int[DEFAULT_CAPACITY];
+    }
+
+    public void add(int move) {
+        if (size == moves.length) {
+            moves = Arrays.copyOf(moves, size * 2);
+        }
+        moves[size++] = move;
+    }
+
+    public int get(int index) {
+        return moves[index];
+    }
+
+    public void set(int index, int move) {
+        moves[index] = move;
+    }
+
+    public void swap(int i, int j) {
+        int move = moves[i];
+        moves[i] = moves[j];
+        moves[j] = move;
+    }
+
+    // index of the first move with the given from and to squares (EncodedMove.getFromTo), -1 if none
+    public int indexOfFromTo(int fromTo) {
+        for (int i = 0; i < size; i++) {
+            if (EncodedMove.getFromTo(moves[i]) == fromTo) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // move the entry at index to the front, keeping the order of the others
+    public void moveToFront(int index) {
+        int move = moves[index];
+        System.arraycopy(moves, 0, moves, 1, index);
+        moves[0] = move;
+    }
+
+    // drop every move from index newSize on
+    public void truncate(int newSize) {
+        size = Math.min(size, newSize);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
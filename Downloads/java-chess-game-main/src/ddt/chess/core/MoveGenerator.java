@@ -0,0 +1,223 @@
+package ddt.chess.core;
+
+import java.util.ArrayList;
+
+// generates moves piece by piece instead of probing every (from, to) pair of squares
+// squares are bitboard indices (x * 8 + y), see Board
+public class MoveGenerator {
+    // precomputed targets of a knight / king standing on each square
+    static final long[] KNIGHT_ATTACKS = new long[64];
+    static final long[] KING_ATTACKS = new long[64];
+    // squares attacked by a pawn standing on each square, indexed by color.ordinal()
+    static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    // ray directions as (x, y) steps
+    static final int[][] ROOK_DIRECTIONS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+    static final int[][] BISHOP_DIRECTIONS = {{-1, -1}, {-1, 1}, {1, -1}, {1, 1}};
+
+    private static final PieceType[] PROMOTIONS = {PieceType.QUEEN, PieceType.ROOK, PieceType.BISHOP, PieceType.KNIGHT};
+    // files the king lands on when castling king side and queen side
+    private static final int[] CASTLING_FILES = {6, 2};
+
+    static {
+        int[][] knightSteps = {{-2, -1}, {-2, 1}, {-1, -2}, {-1, 2}, {1, -2}, {1, 2}, {2, -1}, {2, 1}};
+        int[][] kingSteps = {{-1, -1}, {-1, 0}, {-1, 1}, {0, -1}, {0, 1}, {1, -1}, {1, 0}, {1, 1}};
+        for (int square = 0; square < 64; square++) {
+            int x = square >>> 3;
+            int y = square & 7;
+            KNIGHT_ATTACKS[square] = stepTargets(x, y, knightSteps);
+            KING_ATTACKS[square] = stepTargets(x, y, kingSteps);
+            // white pawns move towards x = 0, black pawns towards x = 7
+            PAWN_ATTACKS[PieceColor.WHITE.ordinal()][square] = stepTargets(x, y, new int[][]{{-1, -1}, {-1, 1}});
+            PAWN_ATTACKS[PieceColor.BLACK.ordinal()][square] = stepTargets(x, y, new int[][]{{1, -1}, {1, 1}});
+        }
+    }
+
+    private static long stepTargets(int x, int y, int[][] steps) {
+        long res = 0;
+        for (int[] step : steps) {
+            int toX = x + step[0];
+            int toY = y + step[1];
+            if (toX >= 0 && toX < 8 && toY >= 0 && toY < 8) {
+                res |= 1L << (toX * 8 + toY);
+            }
+        }
+        return res;
+    }
+
+    // squares reached by sliding from a square until the first occupied square (included)
+    static long slidingTargets(int square, long occupied, int[][] directions) {
+        long res = 0;
+        for (int[] direction : directions) {
+            int x = (square >>> 3) + direction[0];
+            int y = (square & 7) + direction[1];
+            while (x >= 0 && x < 8 && y >= 0 && y < 8) {
+                long bit = 1L << (x * 8 + y);
+                res |= bit;
+                if ((occupied & bit) != 0) {
+                    break;
+                }
+                x += direction[0];
+                y += direction[1];
+            }
+        }
+        return res;
+    }
+
+    // destinations of the piece on a square following its moving pattern,
+    // without en passant, castling or king safety
+    public static long getPseudoLegalTargets(Board board, int square) {
+        Piece piece = board.getSquare(square).getPiece();
+        if (piece == null) {
+            return 0;
+        }
+        long occupied = board.getOccupiedBitboard();
+        long own = board.getColorBitboard(piece.getColor());
+        long res;
+        switch (piece.getType()) {
+            case PAWN -> {
+                PieceColor opponentColor = piece.isWhite() ? PieceColor.BLACK : PieceColor.WHITE;
+                res = PAWN_ATTACKS[piece.getColor().ordinal()][square] & board.getColorBitboard(opponentColor);
+                int step = piece.isWhite() ? -8 : 8;
+                int startingRank = piece.isWhite() ? 6 : 1;
+                int oneStep = square + step;
+                if (oneStep >= 0 && oneStep < 64 && (occupied & (1L << oneStep)) == 0) {
+                    res |= 1L << oneStep;
+                    int twoSteps = oneStep + step;
+                    if ((square >>> 3) == startingRank && (occupied & (1L << twoSteps)) == 0) {
+                        res |= 1L << twoSteps;
+                    }
+                }
+            }
+            case KNIGHT -> res = KNIGHT_ATTACKS[square];
+            case BISHOP -> res = slidingTargets(square, occupied, BISHOP_DIRECTIONS);
+            case ROOK -> res = slidingTargets(square, occupied, ROOK_DIRECTIONS);
+            case QUEEN -> res = slidingTargets(square, occupied, ROOK_DIRECTIONS)
+                    | slidingTargets(square, occupied, BISHOP_DIRECTIONS);
+            case KING -> res = KING_ATTACKS[square];
+            default -> res = 0;
+        }
+        return res & ~own;
+    }
+
+    // legal moves for one side as Move objects, for callers outside the hot paths (UI, validation)
+    // en passant and castling are only included when includeSpecialMoves is true,
+    // enPassantTarget is the square a pawn would land on when capturing en passant (null if none)
+    // a promotion is a single move here, the piece is chosen when it is played
+    public static ArrayList<Move> generateLegalMoves(Board board, PieceColor color,
+                                                     boolean includeSpecialMoves, Square enPassantTarget) {
+        IntMoveList moves = new IntMoveList();
+        int enPassantSquare = (includeSpecialMoves && enPassantTarget != null) ? Board.squareIndex(enPassantTarget) : -1;
+        generate(board, color, enPassantSquare, !includeSpecialMoves, false, moves);
+        ArrayList<Move> res = new ArrayList<>(moves.size());
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            PieceType promotion = EncodedMove.getPromotion(move);
+            if (promotion == null || promotion == PieceType.QUEEN) {
+                res.add(EncodedMove.toMove(board, move));
+            }
+        }
+        return res;
+    }
+
+    // legal moves for one side including en passant and castling, one move per promotion piece
+    // enPassantSquare is the bitboard index of the en passant target, -1 if none
+    public static void generateMoves(Board board, PieceColor color, int enPassantSquare, IntMoveList moves) {
+        moves.clear();
+        generate(board, color, enPassantSquare, false, false, moves);
+    }
+
+    // legal captures (including en passant) and promotions, for quiescence search
+    public static void generateCaptures(Board board, PieceColor color, int enPassantSquare, IntMoveList moves) {
+        moves.clear();
+        generate(board, color, enPassantSquare, true, true, moves);
+    }
+
+    // nothing here allocates: targets come from the bitboards and
+    // king safety is checked with Board.isSafeAfterMove(from, to, capturedSquare) without playing the move
+    private static void generate(Board board, PieceColor color, int enPassantSquare,
+                                 boolean skipCastling, boolean capturesOnly, IntMoveList moves) {
+        PieceColor opponentColor = (color == PieceColor.WHITE) ? PieceColor.BLACK : PieceColor.WHITE;
+        long opponents = board.getColorBitboard(opponentColor);
+        int lastRank = (color == PieceColor.WHITE) ? 0 : 7;
+        int castlingRights = (color == PieceColor.WHITE)
+                ? Zobrist.CASTLING_WHITE_KINGSIDE | Zobrist.CASTLING_WHITE_QUEENSIDE
+                : Zobrist.CASTLING_BLACK_KINGSIDE | Zobrist.CASTLING_BLACK_QUEENSIDE;
+        for (long pieces = board.getColorBitboard(color); pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            Piece piece = board.getSquare(from).getPiece();
+            PieceType type = piece.getType();
+            int firstMove = piece.hasMoved() ? 0 : EncodedMove.FIRST_MOVE;
+            long targets = getPseudoLegalTargets(board, from);
+            if (capturesOnly) {
+                targets &= (type == PieceType.PAWN) ? opponents | (0xFFL << (lastRank * 8)) : opponents;
+            }
+            // stage 1: pseudo-legal targets, stage 2: drop moves leaving the king in check
+            for (; targets != 0; targets &= targets - 1) {
+                int to = Long.numberOfTrailingZeros(targets);
+                if (!board.isSafeAfterMove(from, to, to)) {
+                    continue;
+                }
+                Piece captured = board.getSquare(to).getPiece();
+                PieceType capturedType = (captured == null) ? null : captured.getType();
+                if (type == PieceType.PAWN && (to >>> 3) == lastRank) {
+                    for (PieceType promotion : PROMOTIONS) {
+                        moves.add(EncodedMove.encode(from, to, type, capturedType, promotion, firstMove));
+                    }
+                } else {
+                    int flags = firstMove;
+                    if (type == PieceType.PAWN && Math.abs(to - from) == 16) {
+                        flags |= EncodedMove.DOUBLE_PAWN_PUSH;
+                    }
+                    moves.add(EncodedMove.encode(from, to, type, capturedType, null, flags));
+                }
+            }
+            if (type == PieceType.PAWN && enPassantSquare != -1
+                    && (PAWN_ATTACKS[color.ordinal()][from] & (1L << enPassantSquare)) != 0) {
+                // the passed pawn stands on the from rank and the target file
+                int capturedSquare = (from & ~7) | (enPassantSquare & 7);
+                Piece captured = board.getSquare(capturedSquare).getPiece();
+                if (captured != null && captured.getType() == PieceType.PAWN && captured.getColor() == opponentColor
+                        && board.getSquare(enPassantSquare).isEmpty()
+                        && board.isSafeAfterMove(from, enPassantSquare, capturedSquare)) {
+                    moves.add(EncodedMove.encode(from, enPassantSquare, type, PieceType.PAWN, null,
+                            firstMove | EncodedMove.EN_PASSANT));
+                }
+            } else if (type == PieceType.KING && !skipCastling && (board.getCastlingRights() & castlingRights) != 0) {
+                for (int toY : CASTLING_FILES) {
+                    int to = (from & ~7) | toY;
+                    if (canCastle(board, color, from, to)) {
+                        moves.add(EncodedMove.encode(from, to, type, null, null, firstMove | EncodedMove.CASTLING));
+                    }
+                }
+            }
+        }
+    }
+
+    // same rules as MoveValidator.isValidCastling, for a side that still has a castling right
+    private static boolean canCastle(Board board, PieceColor color, int from, int to) {
+        int homeRank = (color == PieceColor.WHITE) ? 7 : 0;
+        if (from != homeRank * 8 + 4) {
+            return false;
+        }
+        boolean isKingside = to > from;
+        int right = isKingside ? Zobrist.CASTLING_WHITE_KINGSIDE : Zobrist.CASTLING_WHITE_QUEENSIDE;
+        if (color == PieceColor.BLACK) {
+            right <<= 2;
+        }
+        if ((board.getCastlingRights() & right) == 0
+                || board.getSquare(homeRank * 8 + (isKingside ? 7 : 0)).isEmpty()) {
+            return false;
+        }
+        // every square between the king and the rook is empty
+        long between = isKingside ? 0b0110_0000L : 0b0000_1110L;
+        if ((board.getOccupiedBitboard() & (between << (homeRank * 8))) != 0) {
+            return false;
+        }
+        PieceColor opponentColor = (color == PieceColor.WHITE) ? PieceColor.BLACK : PieceColor.WHITE;
+        // not out of, through or into check
+        return !board.isSquareAttacked(from, opponentColor)
+                && !board.isSquareAttacked(isKingside ? from + 1 : from - 1, opponentColor)
+                && board.isSafeAfterMove(from, to, to);
+    }
+}
@@ -5,34 +5,57 @@ import java.util.ArrayList;
 
 public class MoveHistory {
     private final ArrayList<Move> history;
-    private final ArrayList<String> historyString; // use letters to present pieces
-    private final ArrayList<String> unicodeHistoryString; // use Unicode symbols to present pieces
+    // the moves encoded with their SAN disambiguation, the notation is only written when the history is shown
+    private final IntMoveList notationMoves;
+    private final ArrayList<String> sanStrings; // SAN of the first moves that were already shown
+    private String historyString; // use letters to present pieces, null until shown after a change
+    private String unicodeHistoryString; // use Unicode symbols to present pieces
+    // the position the history starts from, when it was loaded from FEN instead of the starting position
+    private int startingPly = 0; // half moves played before the first move, odd if black moves first
 
     public MoveHistory() {
         history = new ArrayList<>();
-        historyString = new ArrayList<>();
-        unicodeHistoryString = new ArrayList<>();
-
+        notationMoves = new IntMoveList();
+        sanStrings = new ArrayList<>();
     }
 
-    public void addMove(Board board, Move move) {
+    /**
+     * Add a played move
+     * @param move The move
+     * @param notationMove The move encoded with its SAN disambiguation, see Notation.disambiguate
+     */
+    public void addMove(Move move, int notationMove) {
         history.add(move);
-        // update history string
-        String index = "";
-        if (history.size() % 2 == 1) {
-            // move index
-            index += (history.size() / 2 + 1) + ". ";
-        }
-        historyString.add(index + Notation.moveToAlgebraicNotation(board, move) + ' ');
-        unicodeHistoryString.add(index + Notation.moveToUnicodeAlgebraicNotation(board, move) + ' ');
+        notationMoves.add(notationMove);
+        historyString = null;
+        unicodeHistoryString = null;
     }
 
     public void undoLastMove() {
         if (!history.isEmpty()) {
             history.removeLast();
-            historyString.removeLast();
-            unicodeHistoryString.removeLast();
+            notationMoves.truncate(notationMoves.size() - 1);
+            if (sanStrings.size() > history.size()) {
+                sanStrings.removeLast();
+            }
+            historyString = null;
+            unicodeHistoryString = null;
+        }
+    }
+
+    // SAN of a move of the history, without check marks
+    public String getSAN(int index) {
+        while (sanStrings.size() <= index) {
+            StringBuilder san = new StringBuilder(8);
+            Notation.appendSAN(notationMoves.get(sanStrings.size()), san);
+            sanStrings.add(san.toString());
         }
+        return sanStrings.get(index);
+    }
+
+    // a move of the history encoded with its SAN disambiguation, see Notation.disambiguate
+    public int getNotationMove(int index) {
+        return notationMoves.get(index);
     }
 
     public boolean isEmpty() {
@@ -44,21 +67,54 @@ public class MoveHistory {
     }
 
     public String getHistoryString() {
-        StringBuilder res = new StringBuilder();
-        for (String str : historyString) {
-            res.append(str);
+        if (historyString == null) {
+            historyString = buildHistoryString(false);
         }
-        return res.toString();
+        return historyString;
     }
+
     public String getUnicodeString() {
-        StringBuilder res = new StringBuilder();
-        for (String str : unicodeHistoryString) {
-            res.append(str);
+        if (unicodeHistoryString == null) {
+            unicodeHistoryString = buildHistoryString(true);
+        }
+        return unicodeHistoryString;
+    }
+
+    private String buildHistoryString(boolean unicode) {
+        StringBuilder res = new StringBuilder(history.size() * 8);
+        for (int i = 0; i < history.size(); i++) {
+            int ply = startingPly + i;
+            if (ply % 2 == 0) {
+                // move index
+                res.append(ply / 2 + 1).append(". ");
+            } else if (i == 0) {
+                // a history starting with black's move
+                res.append(ply / 2 + 1).append("... ");
+            }
+            String san = getSAN(i);
+            res.append(unicode ? Notation.sanToUnicode(san) : san).append(' ');
         }
         return res.toString();
     }
+
     public void resetHistory() {
         history.clear();
+        notationMoves.clear();
+        sanStrings.clear();
+        historyString = null;
+        unicodeHistoryString = null;
+        startingPly = 0;
+    }
+
+    // the history continues a position loaded from FEN, see Game.loadFEN
+    public void setStartingPly(int startingPly) {
+        this.startingPly = startingPly;
+        historyString = null;
+        unicodeHistoryString = null;
+    }
+
+    public int getStartingPly() {
+        return startingPly;
     }
 
     public int getSize() {
@@ -1,7 +1,5 @@
 package ddt.chess.core;
 
-import java.util.ArrayList;
-
 public class MoveValidator {
     public static boolean isValidNormalMove(Board board, Move move) {
         // check if piece can move to destination
@@ -35,11 +33,12 @@ public class MoveValidator {
         return true;
     }
 
-    public static boolean isValidMove(Board board, Move move, MoveHistory history) {
-        return ((isValidNormalMove(board, move)
-                || isValidEnPassant(board, move, history)
-                || isValidCastling(board, move))
-                && board.isSafeAfterMove(move));
+    // depends on the position only: the pieces, castling rights and en passant square of the board
+    public static boolean isValidMove(Board board, Move move) {
+        // every case checks king safety itself, en passant has to remove the passed pawn for that
+        return (isValidNormalMove(board, move)
+                || isValidEnPassant(board, move)
+                || isValidCastling(board, move));
     }
 
 
@@ -135,35 +134,40 @@ public class MoveValidator {
         return true;
     }
 
-    public static boolean isValidEnPassant(Board board, Move move, MoveHistory history) {
-        // check if moving piece is a pawn
-        if (move.getMovingPiece().getType() != PieceType.PAWN) {
+    public static boolean isValidEnPassant(Board board, Move move) {
+        return isValidEnPassant(board, move, getEnPassantTarget(board));
+    }
+
+    // enPassantTarget is the square behind a pawn that has just been pushed 2 squares
+    public static boolean isValidEnPassant(Board board, Move move, Square enPassantTarget) {
+        // check if there is a pawn to capture
+        if (enPassantTarget == null) {
             return false;
         }
-        // check if move is the first move of the game
-        if (history.isEmpty()) {
+        // check if moving piece is a pawn
+        if (move.getMovingPiece() == null || move.getMovingPiece().getType() != PieceType.PAWN) {
             return false;
         }
-        Move lastMove = history.getLastMove();
-        // check if last move is a double pawn push
-        if (!MoveValidator.isDoublePawnPush(lastMove)) {
+        // check if destination is the square behind the opponent's pawn
+        if (!move.getToSquare().equals(enPassantTarget)) {
             return false;
         }
+        // check if capture pattern is correct, one rank forward and one file sideways
         int xDirection = (move.getMovingPiece().isWhite()) ? -1 : 1;
-        // check if 2 pawns are in the same rank
-        if (move.getFromSquare().getX() != lastMove.getToSquare().getX()) {
+        if (move.getToSquare().getX() - move.getFromSquare().getX() != xDirection
+                || move.getFromSquare().yDistanceTo(move.getToSquare()) != 1) {
             return false;
         }
-        // check if capture pattern is correct
-        // check if destination is 1 rank above the opponent's pawn
-        if (!(move.getToSquare().getX() - lastMove.getToSquare().getX() == xDirection)) {
-            return false;
-        }
-        // check if pawn is on the same file as the opponent's captured pawn
-        if (!(move.getToSquare().getY() == lastMove.getToSquare().getY())) {
-            return false;
-        }
-        return board.isSafeAfterMove(move);
+        // the passed pawn is removed too, which matters when it is the piece giving check
+        int from = Board.squareIndex(move.getFromSquare());
+        int to = Board.squareIndex(move.getToSquare());
+        return board.isSafeAfterMove(from, to, (from & ~7) | (to & 7));
+    }
+
+    // the square a pawn lands on when capturing en passant, null if the last move was not a double pawn push
+    public static Square getEnPassantTarget(Board board) {
+        int enPassantSquare = board.getEnPassantSquare();
+        return (enPassantSquare == -1) ? null : board.getSquare(enPassantSquare);
     }
 
     public static boolean isValidEnPassantPattern(Move move) {
@@ -183,10 +187,6 @@ public class MoveValidator {
         if (move.getMovingPiece().getType() != PieceType.KING) {
             return false;
         }
-        // check if king has moved
-        if ((move.getMovingPiece().hasMoved())) {
-            return false;
-        }
         // check if king is in check
         if (board.isCheck(move.getMovingPiece().getColor())) {
             return false;
@@ -213,6 +213,11 @@ public class MoveValidator {
         if (!isShortCastle && !isLongCastle) {
             return false;
         }
+        // check if the side still has the right, i.e. neither the king nor that rook has moved
+        PieceColor color = move.getMovingPiece().getColor();
+        if (!(isShortCastle ? canCastleKingside(board, color) : canCastleQueenside(board, color))) {
+            return false;
+        }
 
         // check if king is in check after move
         if (!board.isSafeAfterMove(move)) {
@@ -227,9 +232,8 @@ public class MoveValidator {
         }
         Square originalRookSquare = board.getSquare(fromX, rookY);
         Move rookToKing = new Move(originalRookSquare, move.getFromSquare());
-        // check if square is empty, or piece has moved, or path between the rook and king is blocked
+        // check if square is empty, or path between the rook and king is blocked
         if (originalRookSquare.isEmpty()
-                || originalRookSquare.getPiece().hasMoved()
                 || isPathBlocked(board, rookToKing)) {
             return false;
         }
@@ -242,11 +246,8 @@ public class MoveValidator {
             squareToCheck = board.getSquare(fromX, 3);
         }
         PieceColor opponentColor = (move.getMovingPiece().isWhite()) ? PieceColor.BLACK : PieceColor.WHITE;
-        ArrayList<Move> validMoves = board.generateAllValidNormalMoves(opponentColor);
-        for (Move validMove : validMoves) {
-            if (validMove.getToSquare().equals(squareToCheck)) {
-                return false;
-            }
+        if (board.isSquareAttacked(squareToCheck, opponentColor)) {
+            return false;
         }
 
         return true;
@@ -254,37 +255,13 @@ public class MoveValidator {
 
     // determine if one side can still castle king side
     public static boolean canCastleKingside(Board board, PieceColor side) {
-        Square kingSquare = null;
-        Square kingsideRookSquare = null;
-        if (side == PieceColor.WHITE) {
-            kingSquare = board.getSquare(7, 4);
-            kingsideRookSquare = board.getSquare(7, 7);
-        } else if (side == PieceColor.BLACK) {
-            kingSquare = board.getSquare(0, 4);
-            kingsideRookSquare = board.getSquare(0, 7);
-        }
-        return (kingsideRookSquare.isOccupied()
-                && kingsideRookSquare.isOccupied()
-                && !kingsideRookSquare.getPiece().hasMoved()
-                && kingSquare.isOccupied()
-                && !kingSquare.getPiece().hasMoved());
+        int right = (side == PieceColor.WHITE) ? Zobrist.CASTLING_WHITE_KINGSIDE : Zobrist.CASTLING_BLACK_KINGSIDE;
+        return (board.getCastlingRights() & right) != 0;
     }
 
     // determine if one side can still castle queen side
     public static boolean canCastleQueenside(Board board, PieceColor side) {
-        Square kingSquare = null;
-        Square queensideRookSquare = null;
-        if (side == PieceColor.WHITE) {
-            kingSquare = board.getSquare(7, 4);
-            queensideRookSquare = board.getSquare(7, 0);
-        } else if (side == PieceColor.BLACK) {
-            kingSquare = board.getSquare(0, 4);
-            queensideRookSquare = board.getSquare(0, 0);
-        }
-        return (queensideRookSquare.isOccupied()
-                && queensideRookSquare.isOccupied()
-                && !queensideRookSquare.getPiece().hasMoved()
-                && kingSquare.isOccupied()
-                && !kingSquare.getPiece().hasMoved());
+        int right = (side == PieceColor.WHITE) ? Zobrist.CASTLING_WHITE_QUEENSIDE : Zobrist.CASTLING_BLACK_QUEENSIDE;
+        return (board.getCastlingRights() & right) != 0;
     }
 }
\ No newline at end of file
@@ -1,13 +1,19 @@
 package ddt.chess.core;
 
 public enum PieceType {
-    PAWN('p'), KNIGHT('n'), BISHOP('b'), ROOK('r'), QUEEN('q'), KING('k');
+    PAWN('p', 1), KNIGHT('n', 3), BISHOP('b', 3), ROOK('r', 5), QUEEN('q', 9), KING('k', 0);
     private final char pieceLetter;
-    PieceType(char letter) {
+    private final int value; // material value in pawns
+    PieceType(char letter, int value) {
         this.pieceLetter = letter;
+        this.value = value;
     }
     public char getPieceLetter() {
         return pieceLetter;
     }
 
+    public int getValue() {
+        return value;
+    }
+
 }
@@ -9,7 +9,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class SaveHistory {
-    private Square square;
     private final Game game;
     private final Board board;
     private final Notation notation;
@@ -37,20 +36,19 @@ public class SaveHistory {
             // Save notation type
             writer.println(notation.getClass().getName());
 
-            // Create a fresh board for replay
-            Board boardCopy = new Board();
-            boardCopy.setupPieces();
+            // Replay the game, so every move is saved with the position it leads to
+            String startingFEN = game.getStartingFEN();
+            Game replay = (startingFEN == null) ? new Game() : Game.fromFEN(startingFEN);
 
             // Save initial board position
-            writer.println(Notation.gameToFEN(game));
-
-            // Get the moves from the history
-            ArrayList<Move> moves = moveHistory.getHistory();
-
-            for (Move move : moves) {
-                String moveNotation = Notation.moveToAlgebraicNotation(boardCopy, move);
-                boardCopy.makeMove(move);
-                writer.println(moveNotation + " " + notation.gameToFEN(game)+ "\n"+ notation.squareToNotation(square));
+            writer.println(Notation.gameToFEN(replay));
+
+            for (int i = 0; i < moveHistory.getSize(); i++) {
+                int move = moveHistory.getNotationMove(i);
+                Board replayBoard = replay.getBoard();
+                replay.makeMove(new Move(replayBoard.getSquare(EncodedMove.getFrom(move)),
+                        replayBoard.getSquare(EncodedMove.getTo(move))), EncodedMove.getPromotion(move));
+                writer.println(moveHistory.getSAN(i) + " " + Notation.gameToFEN(replay));
             }
 
         } catch (IOException e) {
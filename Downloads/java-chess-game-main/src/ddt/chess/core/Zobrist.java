@@ -0,0 +1,75 @@
+package ddt.chess.core;
+
+import java.util.SplittableRandom;
+
+// random keys for Zobrist hashing: a position's key is the XOR of the keys of everything in it,
+// so a move only has to XOR out what it removes and XOR in what it adds
+public class Zobrist {
+    // indexed by [color.ordinal() * 6 + type.ordinal()][square index]
+    static final long[][] PIECE_KEYS = new long[12][64];
+    // XORed in when black is to move
+    static final long SIDE_KEY;
+    // indexed by castling rights bitmask (see CASTLING_* constants)
+    static final long[] CASTLING_KEYS = new long[16];
+    // indexed by file of the en passant target square
+    static final long[] EN_PASSANT_KEYS = new long[8];
+
+    public static final int CASTLING_WHITE_KINGSIDE = 1;
+    public static final int CASTLING_WHITE_QUEENSIDE = 2;
+    public static final int CASTLING_BLACK_KINGSIDE = 4;
+    public static final int CASTLING_BLACK_QUEENSIDE = 8;
+
+    static {
+        // fixed seed so keys are the same on every run
+        SplittableRandom random = new SplittableRandom(0x5EED_C0FF_EE15_600DL);
+        for (long[] keys : PIECE_KEYS) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = random.nextLong();
+            }
+        }
+        SIDE_KEY = random.nextLong();
+        // rights are combined by XOR of one key per right, so any combination gets a consistent key
+        long[] rightKeys = {random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong()};
+        for (int rights = 0; rights < 16; rights++) {
+            for (int i = 0; i < 4; i++) {
+                if ((rights & (1 << i)) != 0) {
+                    CASTLING_KEYS[rights] ^= rightKeys[i];
+                }
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            EN_PASSANT_KEYS[i] = random.nextLong();
+        }
+    }
+
+    // full key of a position, enPassantTarget is null when the last move was not a double pawn push
+    public static long positionKey(Board board, PieceColor turn, Square enPassantTarget) {
+        return positionKey(board, turn, (enPassantTarget == null) ? -1 : Board.squareIndex(enPassantTarget));
+    }
+
+    // same with the bitboard index of the en passant target, -1 if none
+    public static long positionKey(Board board, PieceColor turn, int enPassantSquare) {
+        return positionKey(board, turn, board.getCastlingRights(), enPassantSquare);
+    }
+
+    // same with castling rights that are already known, a bitmask of CASTLING_* flags
+    public static long positionKey(Board board, PieceColor turn, int castlingRights, int enPassantSquare) {
+        long key = board.getZobristKey();
+        if (turn == PieceColor.BLACK) {
+            key ^= SIDE_KEY;
+        }
+        key ^= CASTLING_KEYS[castlingRights];
+        // only count en passant when a pawn can actually capture, like the repetition rules do
+        int opponent = (turn == PieceColor.WHITE) ? PieceColor.BLACK.ordinal() : PieceColor.WHITE.ordinal();
+        if (enPassantSquare != -1
+                && (MoveGenerator.PAWN_ATTACKS[opponent][enPassantSquare]
+                    & board.getPieceBitboard(turn, PieceType.PAWN)) != 0) {
+            key ^= EN_PASSANT_KEYS[enPassantSquare & 7];
+        }
+        return key;
+    }
+
+    public static long pieceKey(Piece piece, int square) {
+        return PIECE_KEYS[piece.getColor().ordinal() * 6 + piece.getType().ordinal()][square];
+    }
+}
@@ -0,0 +1,401 @@
+package ddt.chess.engine;
+
+import ddt.chess.core.Game;
+import ddt.chess.util.AnalysisResult;
+import ddt.chess.util.PgnGame;
+import ddt.chess.util.PgnReader;
+import ddt.chess.util.StockfishPool;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// analyses every position of the games saved by SaveHistory, or of the games of a PGN database, on several threads
+// positions are streamed from the files and at most parallelism + queueCapacity of them are in flight,
+// so the reader never runs ahead of the engines
+// every result is appended to the output file when it is known, and positions already in the
+// output are skipped, so an interrupted batch continues where it stopped when it is run again
+public class BatchAnalyzer {
+    private static final String HEADER = "# game\tply\tfen\tbestmove\tscore\tpv";
+
+    private final PositionAnalyzer analyzer;
+    private final int parallelism;
+    private final int queueCapacity;
+    private Consumer<Progress> progressListener;
+    private volatile boolean stopRequested = false;
+
+    // counters of a running batch
+    private final AtomicLong gamesRead = new AtomicLong();
+    private final AtomicLong analysed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong nodes = new AtomicLong();
+    private volatile int totalGames;
+    private volatile long startTime;
+
+    // a snapshot of the counters of a batch
+    public static class Progress {
+        private final long gamesRead;
+        private final int totalGames;
+        private final long analysed;
+        private final long skipped;
+        private final long failed;
+        private final long nodes;
+        private final long elapsedMillis;
+
+        private Progress(long gamesRead, int totalGames, long analysed, long skipped, long failed, long nodes,
+                         long elapsedMillis) {
+            this.gamesRead = gamesRead;
+            this.totalGames = totalGames;
+            this.analysed = analysed;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.nodes = nodes;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getGamesRead() {
+            return gamesRead;
+        }
+
+        public int getTotalGames() {
+            return totalGames;
+        }
+
+        // positions analysed in this run
+        public long getAnalysed() {
+            return analysed;
+        }
+
+        // positions already in the output from an earlier run
+        public long getSkipped() {
+            return skipped;
+        }
+
+        // positions the analyzer threw on, they are analysed again in the next run
+        public long getFailed() {
+            return failed;
+        }
+
+        // nodes searched by the engines in this run, as reported in their info lines
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getPositionsPerSecond() {
+            return (elapsedMillis == 0) ? 0 : analysed * 1000.0 / elapsedMillis;
+        }
+
+        // nodes per second of all engines together
+        public double getNodesPerSecond() {
+            return (elapsedMillis == 0) ? 0 : nodes * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            // the number of games of a PGN file is only known at its end
+            String games = (totalGames > 0) ? gamesRead + "/" + totalGames : String.valueOf(gamesRead);
+            return String.format("games %s, analysed %d, skipped %d, failed %d, %.1f positions/s, %.0f kN/s",
+                    games, analysed, skipped, failed, getPositionsPerSecond(),
+                    getNodesPerSecond() / 1000);
+        }
+    }
+
+    /**
+     * Create a batch analyzer that queues four positions per thread
+     * @param analyzer Analyses the positions, it is called from every thread at once
+     * @param parallelism Number of positions analysed at once
+     */
+    public BatchAnalyzer(PositionAnalyzer analyzer, int parallelism) {
+        this(analyzer, parallelism, 4 * parallelism);
+    }
+
+    /**
+     * Create a batch analyzer
+     * @param analyzer Analyses the positions, it is called from every thread at once
+     * @param parallelism Number of positions analysed at once
+     * @param queueCapacity Number of positions read ahead of the analysing threads
+     */
+    public BatchAnalyzer(PositionAnalyzer analyzer, int parallelism, int queueCapacity) {
+        this.analyzer = analyzer;
+        this.parallelism = Math.max(1, parallelism);
+        this.queueCapacity = Math.max(0, queueCapacity);
+    }
+
+    /**
+     * Called after every analysed or failed position, on the analysing thread
+     * @param progressListener Listener, or null for none
+     */
+    public void setProgressListener(Consumer<Progress> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    // makes a running batch stop reading positions, the ones in flight are still written out
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Analyse every position of the saved games in a folder, or of the games in a PGN file
+     * The output has one tab separated line per position: game file, ply, FEN, best move, score and
+     * principal variation, in the order the analyses finish
+     * @param historyFolder Folder with the gameN.txt files written by SaveHistory, or a PGN file
+     * @param outputFile File the results are appended to, positions already in it are skipped
+     * @return Counters of the run
+     * @throws IOException If the output cannot be read or written
+     * @throws InterruptedException If the thread was interrupted while waiting for the analysing threads
+     */
+    public Progress run(File historyFolder, File outputFile) throws IOException, InterruptedException {
+        stopRequested = false;
+        gamesRead.set(0);
+        analysed.set(0);
+        skipped.set(0);
+        failed.set(0);
+        nodes.set(0);
+        startTime = System.currentTimeMillis();
+
+        Set<String> completed = readCompleted(outputFile);
+        boolean pgn = historyFolder.isFile();
+        List<File> games = pgn ? List.of() : listGames(historyFolder);
+        totalGames = games.size();
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "batch-analyzer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // one permit per position in flight, the reader waits for a permit before it submits a position
+        Semaphore inFlight = new Semaphore(parallelism + queueCapacity);
+        boolean newOutput = !outputFile.exists() || outputFile.length() == 0;
+        endWithLineBreak(outputFile);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile, true))) {
+            if (newOutput) {
+                writer.write(HEADER);
+                writer.newLine();
+                writer.flush();
+            }
+            if (pgn) {
+                submitPgnGames(historyFolder, completed, executor, inFlight, writer);
+            }
+            for (File game : games) {
+                if (stopRequested) {
+                    break;
+                }
+                try (BufferedReader reader = new BufferedReader(new FileReader(game))) {
+                    String line;
+                    int ply = 0;
+                    while (!stopRequested && (line = reader.readLine()) != null) {
+                        String fen = extractFEN(line);
+                        if (fen == null) {
+                            continue;
+                        }
+                        submit(game.getName() + "\t" + ply, fen, completed, executor, inFlight, writer);
+                        ply++;
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error reading " + game + ": " + e.getMessage());
+                }
+                gamesRead.incrementAndGet();
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        Progress progress = getProgress();
+        if (progressListener != null) {
+            progressListener.accept(progress);
+        }
+        return progress;
+    }
+
+    // every position of every game of a PGN database, the games are streamed and replayed one at a time
+    // a position is identified by the number of its game in the file and its ply
+    private void submitPgnGames(File pgnFile, Set<String> completed, ExecutorService executor, Semaphore inFlight,
+                                BufferedWriter writer) throws IOException, InterruptedException {
+        Game game = new Game();
+        try (PgnReader reader = new PgnReader(new FileReader(pgnFile))) {
+            PgnGame pgnGame;
+            while (!stopRequested && (pgnGame = reader.next()) != null) {
+                String name = pgnFile.getName() + "#" + reader.getGamesRead();
+                // a game with an illegal move is analysed up to that move
+                List<String> fens = new ArrayList<>();
+                try {
+                    pgnGame.replay(game, position -> fens.add(position.getFEN()));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error replaying " + name + ": " + e.getMessage());
+                }
+                for (int ply = 0; ply < fens.size() && !stopRequested; ply++) {
+                    submit(name + "\t" + ply, fens.get(ply), completed, executor, inFlight, writer);
+                }
+                gamesRead.incrementAndGet();
+            }
+        }
+    }
+
+    // queues a position unless an earlier run analysed it, waits while too many positions are in flight
+    private void submit(String id, String fen, Set<String> completed, ExecutorService executor, Semaphore inFlight,
+                        BufferedWriter writer) throws InterruptedException {
+        if (completed.contains(id)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        inFlight.acquire();
+        executor.execute(() -> {
+            try {
+                AnalysisResult analysis = analyzer.analyze(fen);
+                if (analysis != null) {
+                    nodes.addAndGet(analysis.getNodes());
+                }
+                String result = id + "\t" + fen + "\t" + formatAnalysis(analysis);
+                synchronized (writer) {
+                    writer.write(result);
+                    writer.newLine();
+                    // flushed per line so a crash loses nothing that was finished
+                    writer.flush();
+                }
+                analysed.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+                System.err.println("Error analysing " + id.replace('\t', ':') + ": " + e.getMessage());
+            } finally {
+                inFlight.release();
+                reportProgress();
+            }
+        });
+    }
+
+    public Progress getProgress() {
+        return new Progress(gamesRead.get(), totalGames, analysed.get(), skipped.get(), failed.get(),
+                nodes.get(), System.currentTimeMillis() - startTime);
+    }
+
+    private void reportProgress() {
+        Consumer<Progress> listener = progressListener;
+        if (listener != null) {
+            listener.accept(getProgress());
+        }
+    }
+
+    /**
+     * Find the FEN in a line of a saved game, it is the last six fields of the line
+     * @param line Line of a gameN.txt file
+     * @return The FEN, or null if the line has none
+     */
+    public static String extractFEN(String line) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length < 6) {
+            return null;
+        }
+        int start = fields.length - 6;
+        String placement = fields[start];
+        String turn = fields[start + 1];
+        if (placement.chars().filter(c -> c == '/').count() != 7 || !(turn.equals("w") || turn.equals("b"))) {
+            return null;
+        }
+        return String.join(" ", Arrays.asList(fields).subList(start, fields.length));
+    }
+
+    private static String formatAnalysis(AnalysisResult analysis) {
+        if (analysis == null || analysis.getBestMove() == null) {
+            return "(none)\t-\t";
+        }
+        String score = !analysis.hasScore() ? "-"
+                : (analysis.isMate() ? "mate " : "cp ") + analysis.getScore();
+        return analysis.getBestMove() + "\t" + score + "\t" + String.join(" ", analysis.getPrincipalVariation());
+    }
+
+    // games in the order they were saved, game2.txt before game10.txt
+    private static List<File> listGames(File historyFolder) {
+        File[] files = historyFolder.listFiles((dir, name) -> name.matches("game\\d+\\.txt"));
+        List<File> res = new ArrayList<>();
+        if (files != null) {
+            res.addAll(Arrays.asList(files));
+        }
+        res.sort(Comparator.comparingLong(file -> Long.parseLong(file.getName().replaceAll("\\D", ""))));
+        return res;
+    }
+
+    // game and ply of every position in the output of an earlier run
+    private static Set<String> readCompleted(File outputFile) throws IOException {
+        Set<String> res = new HashSet<>();
+        if (!outputFile.exists()) {
+            return res;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(outputFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\t", -1);
+                // a line cut short by a crash is analysed again
+                if (columns.length == 6) {
+                    res.add(columns[0] + "\t" + columns[1]);
+                }
+            }
+        }
+        return res;
+    }
+
+    // a line cut short by a crash must not run into the first line of this run
+    private static void endWithLineBreak(File outputFile) throws IOException {
+        if (!outputFile.exists() || outputFile.length() == 0) {
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(outputFile, "rw")) {
+            file.seek(file.length() - 1);
+            if (file.read() != '\n') {
+                file.write('\n');
+            }
+        }
+    }
+
+    // usage: BatchAnalyzer <history folder or PGN file> <output file> [move time in ms] [engines] [stockfish|internal]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: BatchAnalyzer <history folder or PGN file> <output file> [move time in ms] [engines]"
+                    + " [stockfish|internal]");
+            return;
+        }
+        int moveTime = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        int engines = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        boolean internal = args.length > 4 && args[4].equals("internal");
+        StockfishPool pool = new StockfishPool(StockfishStrategy.DEFAULT_PATH, engines);
+        PositionAnalyzer analyzer = internal ? new SearchEngineAnalyzer(moveTime) : new StockfishAnalyzer(pool, moveTime);
+        BatchAnalyzer batch = new BatchAnalyzer(analyzer, engines);
+        AtomicLong lastReport = new AtomicLong();
+        batch.setProgressListener(progress -> {
+            long now = System.currentTimeMillis();
+            long last = lastReport.get();
+            if (now - last >= 5000 && lastReport.compareAndSet(last, now)) {
+                System.out.println(progress);
+            }
+        });
+        try {
+            System.out.println("done: " + batch.run(new File(args[0]), new File(args[1])));
+        } finally {
+            pool.close();
+        }
+    }
+}
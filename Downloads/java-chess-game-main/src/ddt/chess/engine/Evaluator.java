@@ -0,0 +1,98 @@
+package ddt.chess.engine;
+
+import ddt.chess.core.Board;
+import ddt.chess.core.PieceColor;
+import ddt.chess.core.PieceType;
+
+// static evaluation: material plus piece-square tables, in centipawns
+public class Evaluator {
+    // indexed by PieceType.ordinal()
+    static final int[] PIECE_VALUES = {100, 320, 330, 500, 900, 0};
+
+    // piece-square tables from white's point of view, laid out like the board (first row is rank 8)
+    // so a white piece on bitboard index i uses entry i and a black piece uses the mirrored entry (i ^ 56)
+    private static final int[][] PIECE_SQUARE_TABLES = {
+            // pawn
+            {
+                      0,   0,   0,   0,   0,   0,   0,   0,
+                     50,  50,  50,  50,  50,  50,  50,  50,
+                     10,  10,  20,  30,  30,  20,  10,  10,
+                      5,   5,  10,  25,  25,  10,   5,   5,
+                      0,   0,   0,  20,  20,   0,   0,   0,
+                      5,  -5, -10,   0,   0, -10,  -5,   5,
+                      5,  10,  10, -20, -20,  10,  10,   5,
+                      0,   0,   0,   0,   0,   0,   0,   0
+            },
+            // knight
+            {
+                    -50, -40, -30, -30, -30, -30, -40, -50,
+                    -40, -20,   0,   0,   0,   0, -20, -40,
+                    -30,   0,  10,  15,  15,  10,   0, -30,
+                    -30,   5,  15,  20,  20,  15,   5, -30,
+                    -30,   0,  15,  20,  20,  15,   0, -30,
+                    -30,   5,  10,  15,  15,  10,   5, -30,
+                    -40, -20,   0,   5,   5,   0, -20, -40,
+                    -50, -40, -30, -30, -30, -30, -40, -50
+            },
+            // bishop
+            {
+                    -20, -10, -10, -10, -10, -10, -10, -20,
+                    -10,   0,   0,   0,   0,   0,   0, -10,
+                    -10,   0,   5,  10,  10,   5,   0, -10,
+                    -10,   5,   5,  10,  10,   5,   5, -10,
+                    -10,   0,  10,  10,  10,  10,   0, -10,
+                    -10,  10,  10,  10,  10,  10,  10, -10,
+                    -10,   5,   0,   0,   0,   0,   5, -10,
+                    -20, -10, -10, -10, -10, -10, -10, -20
+            },
+            // rook
+            {
+                      0,   0,   0,   0,   0,   0,   0,   0,
+                      5,  10,  10,  10,  10,  10,  10,   5,
+                     -5,   0,   0,   0,   0,   0,   0,  -5,
+                     -5,   0,   0,   0,   0,   0,   0,  -5,
+                     -5,   0,   0,   0,   0,   0,   0,  -5,
+                     -5,   0,   0,   0,   0,   0,   0,  -5,
+                     -5,   0,   0,   0,   0,   0,   0,  -5,
+                      0,   0,   0,   5,   5,   0,   0,   0
+            },
+            // queen
+            {
+                    -20, -10, -10,  -5,  -5, -10, -10, -20,
+                    -10,   0,   0,   0,   0,   0,   0, -10,
+                    -10,   0,   5,   5,   5,   5,   0, -10,
+                     -5,   0,   5,   5,   5,   5,   0,  -5,
+                      0,   0,   5,   5,   5,   5,   0,  -5,
+                    -10,   5,   5,   5,   5,   5,   0, -10,
+                    -10,   0,   5,   0,   0,   0,   0, -10,
+                    -20, -10, -10,  -5,  -5, -10, -10, -20
+            },
+            // king, middlegame: stay behind the pawns
+            {
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -20, -30, -30, -40, -40, -30, -30, -20,
+                    -10, -20, -20, -20, -20, -20, -20, -10,
+                     20,  20,   0,   0,   0,   0,  20,  20,
+                     20,  30,  10,   0,   0,  10,  30,  20
+            }
+    };
+
+    // score of the position from the point of view of the given side
+    public static int evaluate(Board board, PieceColor side) {
+        int score = 0;
+        for (PieceType type : PieceType.values()) {
+            int value = PIECE_VALUES[type.ordinal()];
+            int[] table = PIECE_SQUARE_TABLES[type.ordinal()];
+            for (long pieces = board.getPieceBitboard(PieceColor.WHITE, type); pieces != 0; pieces &= pieces - 1) {
+                score += value + table[Long.numberOfTrailingZeros(pieces)];
+            }
+            for (long pieces = board.getPieceBitboard(PieceColor.BLACK, type); pieces != 0; pieces &= pieces - 1) {
+                score -= value + table[Long.numberOfTrailingZeros(pieces) ^ 56];
+            }
+        }
+        return (side == PieceColor.WHITE) ? score : -score;
+    }
+}
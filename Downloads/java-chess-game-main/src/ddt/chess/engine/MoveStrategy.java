@@ -0,0 +1,27 @@
+package ddt.chess.engine;
+
+import ddt.chess.core.Game;
+
+// decides the computer's move in a ComputerGame
+public interface MoveStrategy {
+    /**
+     * Choose a move for the side to move
+     * @param game Game to choose a move in, it is not modified
+     * @return Move in UCI format (e.g. "e2e4", "e7e8q"), or null if there is no move
+     */
+    String findBestMove(Game game);
+
+    /**
+     * Make a findBestMove running on another thread return as soon as possible
+     */
+    default void stop() {
+    }
+
+    /**
+     * Think on the opponent's time after the computer has moved, findBestMove picks the result up
+     * Strategies that cannot ponder ignore this
+     * @param game Game in which the opponent is to move, it is not modified
+     */
+    default void ponder(Game game) {
+    }
+}
@@ -0,0 +1,13 @@
+package ddt.chess.engine;
+
+import ddt.chess.util.AnalysisResult;
+
+// analyses single positions for a BatchAnalyzer, which calls it from several threads at once
+public interface PositionAnalyzer {
+    /**
+     * Analyse a position
+     * @param fen FEN of the position
+     * @return Best move, score and principal variation, or null if the side to move has no move
+     */
+    AnalysisResult analyze(String fen);
+}
@@ -0,0 +1,203 @@
+package ddt.chess.engine;
+
+import ddt.chess.core.*;
+import ddt.chess.util.Notation;
+import ddt.chess.util.TimerClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// in-process engine: iterative deepening alpha-beta with quiescence search,
+// built on the library's own move generator
+// with more than one thread it runs Lazy SMP: every thread searches the same root on its own board copy
+// and the threads only share results through the transposition table
+// the class is final because the constructor hands the engine to its workers before it is fully built
+public final class SearchEngine implements MoveStrategy {
+    static final int INFINITY = 1_000_000;
+    static final int MATE_SCORE = 100_000;
+    static final int MAX_PLY = 128;
+
+    private int maxDepth = 64;
+    private long moveTimeMillis = 1000; // thinking time in untimed games
+    private int movesToGo = 30; // timed games spend remaining time / movesToGo on a move
+    private final TranspositionTable transpositionTable;
+
+    // workers.get(0) runs on the calling thread and decides the move, the others run on helperPool
+    private final List<SearchWorker> workers = new ArrayList<>();
+    private ExecutorService helperPool;
+    // a search stops once stop() was called after it was submitted, even while it still waited for the lock
+    private final AtomicLong stopCount = new AtomicLong(); // calls of stop() so far
+    private volatile long searchStopCount; // stopCount when the running search was submitted
+    private volatile boolean searchDone; // the main worker has its move, the helpers stop too
+
+    // results of the last search
+    private long nodes;
+    private int completedDepth;
+    private int bestScore;
+
+    public SearchEngine() {
+        this(new TranspositionTable(16));
+    }
+
+    // several engines can share one table, e.g. engines playing many games of the same opening
+    public SearchEngine(TranspositionTable transpositionTable) {
+        this.transpositionTable = transpositionTable;
+        setThreads(1);
+    }
+
+    @Override
+    public String findBestMove(Game game) {
+        long stops = stopCount.get();
+        long thinkingTime = moveTimeMillis;
+        if (game.isTimedGame()) {
+            TimerClock clock = (game.getCurrentTurn() == PieceColor.WHITE) ? game.getWhiteClock() : game.getBlackClock();
+            thinkingTime = Math.max(50, clock.getRemainingTimeMillis() / movesToGo);
+        }
+        // search on a copy so the game's board and pieces are never touched
+        Board boardCopy = game.getBoard().copy();
+        Square enPassantTarget = MoveValidator.getEnPassantTarget(boardCopy);
+        Move best = search(boardCopy, game.getCurrentTurn(), enPassantTarget, thinkingTime, stops);
+        return (best == null) ? null : toUci(best);
+    }
+
+    // searches until the time is up, maxDepth is reached or stop is called, the board is left as it was
+    public Move search(Board board, PieceColor turn, Square enPassantTarget, long thinkingTimeMillis) {
+        return search(board, turn, enPassantTarget, thinkingTimeMillis, stopCount.get());
+    }
+
+    // stops is stopCount when the search was submitted, a stop() since then ends it
+    private synchronized Move search(Board board, PieceColor turn, Square enPassantTarget, long thinkingTimeMillis,
+                                     long stops) {
+        long start = System.nanoTime();
+        long deadline = start + thinkingTimeMillis * 1_000_000;
+        searchStopCount = stops;
+        searchDone = false;
+        transpositionTable.newSearch();
+
+        // every helper gets its own copy of the board, they run until the main worker is done
+        int enPassantSquare = (enPassantTarget == null) ? -1 : Board.squareIndex(enPassantTarget);
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < workers.size(); i++) {
+            SearchWorker helper = workers.get(i);
+            Board helperBoard = board.copy();
+            helpers.add(helperPool.submit(() ->
+                    helper.search(helperBoard, turn, enPassantSquare, start, deadline, maxDepth)));
+        }
+        Move best = workers.get(0).search(board, turn, enPassantSquare, start, deadline, maxDepth);
+        searchDone = true;
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+
+        nodes = 0;
+        for (SearchWorker worker : workers) {
+            nodes += worker.getNodes();
+        }
+        completedDepth = workers.get(0).getCompletedDepth();
+        bestScore = workers.get(0).getBestScore();
+        return best;
+    }
+
+    // makes a running search return its best move so far, searches waiting for it return at once
+    @Override
+    public void stop() {
+        stopCount.incrementAndGet();
+    }
+
+    boolean isStopRequested() {
+        return searchDone || stopCount.get() != searchStopCount;
+    }
+
+    public static String toUci(Move move) {
+        String res = Notation.squareToNotation(move.getFromSquare()) + Notation.squareToNotation(move.getToSquare());
+        if (MoveValidator.isValidPromotion(move)) {
+            // the search always promotes to a queen
+            res += 'q';
+        }
+        return res;
+    }
+
+    /**
+     * Set the number of search threads, like Stockfish.setThreads
+     * The default is 1, so engines of concurrent games do not compete for the same cores
+     * @param numThreads Number of threads
+     */
+    public synchronized void setThreads(int numThreads) {
+        if (numThreads <= 0) {
+            return;
+        }
+        if (helperPool != null) {
+            helperPool.shutdown();
+            helperPool = null;
+        }
+        workers.clear();
+        for (int i = 0; i < numThreads; i++) {
+            workers.add(new SearchWorker(this, transpositionTable, i));
+        }
+        if (numThreads > 1) {
+            helperPool = Executors.newFixedThreadPool(numThreads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "search-helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public synchronized int getThreads() {
+        return workers.size();
+    }
+
+    /**
+     * Set the transposition table size in MB, like Stockfish.setHashSize
+     * @param sizeInMB Size in megabytes
+     */
+    public void setHashSize(int sizeInMB) {
+        transpositionTable.setHashSize(sizeInMB);
+    }
+
+    /**
+     * Clear the transposition table, like Stockfish.clearHash
+     */
+    public void clearHash() {
+        transpositionTable.clear();
+    }
+
+    public TranspositionTable getTranspositionTable() {
+        return transpositionTable;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = Math.max(1, Math.min(maxDepth, MAX_PLY - 1));
+    }
+
+    public void setMoveTime(long moveTimeMillis) {
+        this.moveTimeMillis = moveTimeMillis;
+    }
+
+    public void setMovesToGo(int movesToGo) {
+        this.movesToGo = Math.max(1, movesToGo);
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    public int getBestScore() {
+        return bestScore;
+    }
+}
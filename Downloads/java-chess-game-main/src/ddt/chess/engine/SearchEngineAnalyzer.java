@@ -0,0 +1,57 @@
+package ddt.chess.engine;
+
+import ddt.chess.core.Board;
+import ddt.chess.core.FenParser;
+import ddt.chess.core.Move;
+import ddt.chess.util.AnalysisResult;
+
+// analyses positions with the in-process SearchEngine, one engine per calling thread
+// the engines share a transposition table, so positions of the same game help each other
+public class SearchEngineAnalyzer implements PositionAnalyzer {
+    private final long moveTimeMillis;
+    private final TranspositionTable transpositionTable;
+
+    // each thread keeps its engine, board and parser for all its positions
+    private final ThreadLocal<SearchEngine> engines;
+    private final ThreadLocal<Board> boards = ThreadLocal.withInitial(Board::new);
+    private final ThreadLocal<FenParser> parsers = ThreadLocal.withInitial(FenParser::new);
+
+    public SearchEngineAnalyzer(long moveTimeMillis) {
+        this(moveTimeMillis, new TranspositionTable(64));
+    }
+
+    public SearchEngineAnalyzer(long moveTimeMillis, TranspositionTable transpositionTable) {
+        this.moveTimeMillis = moveTimeMillis;
+        this.transpositionTable = transpositionTable;
+        engines = ThreadLocal.withInitial(() -> new SearchEngine(transpositionTable));
+    }
+
+    @Override
+    public AnalysisResult analyze(String fen) {
+        Board board = boards.get();
+        FenParser parser = parsers.get();
+        parser.parse(fen, board);
+        int enPassantSquare = parser.getEnPassantSquare();
+        SearchEngine engine = engines.get();
+        long start = System.currentTimeMillis();
+        Move best = engine.search(board, parser.getTurn(),
+                (enPassantSquare == -1) ? null : board.getSquare(enPassantSquare), moveTimeMillis);
+        if (best == null) {
+            return null;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        int score = engine.getBestScore();
+        // mate scores count plies from the root, UCI counts moves
+        boolean mate = Math.abs(score) > SearchEngine.MATE_SCORE - SearchEngine.MAX_PLY;
+        if (mate) {
+            int plies = SearchEngine.MATE_SCORE - Math.abs(score);
+            score = Integer.signum(score) * (plies + 1) / 2;
+        }
+        return AnalysisResult.of(SearchEngine.toUci(best), engine.getCompletedDepth(), engine.getNodes(), elapsed,
+                score, mate);
+    }
+
+    public TranspositionTable getTranspositionTable() {
+        return transpositionTable;
+    }
+}
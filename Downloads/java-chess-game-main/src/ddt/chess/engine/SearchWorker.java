@@ -0,0 +1,310 @@
+package ddt.chess.engine;
+
+import ddt.chess.core.*;
+
+import static ddt.chess.engine.SearchEngine.*;
+
+// one search thread of a SearchEngine, with its own board copy and move ordering state
+// workers only share the transposition table, which is how they help each other (Lazy SMP)
+// moves are encoded ints (see EncodedMove) kept in one list per ply, so the search does not allocate per node
+class SearchWorker {
+    private final SearchEngine engine;
+    private final TranspositionTable transpositionTable;
+    private final int id; // 0 for the main worker, whose result is played
+
+    private Board board;
+    private long deadline;
+    private long nodes;
+    private boolean stopped;
+    private int completedDepth;
+    private int bestScore;
+    // two quiet moves per ply that caused a beta cutoff, encoded as from * 64 + to
+    private final int[][] killerMoves = new int[MAX_PLY][2];
+    // moves and their ordering scores of every ply
+    private final IntMoveList[] moveLists = new IntMoveList[MAX_PLY + 1];
+    private final int[][] moveScores = new int[MAX_PLY + 1][];
+    private final IntMoveList rootMoves = new IntMoveList();
+
+    SearchWorker(SearchEngine engine, TranspositionTable transpositionTable, int id) {
+        this.engine = engine;
+        this.transpositionTable = transpositionTable;
+        this.id = id;
+        for (int ply = 0; ply <= MAX_PLY; ply++) {
+            moveLists[ply] = new IntMoveList();
+            moveScores[ply] = new int[256];
+        }
+    }
+
+    // iterative deepening, returns the best move of the deepest finished iteration
+    // enPassantSquare is the bitboard index of the en passant target, -1 if none
+    Move search(Board board, PieceColor turn, int enPassantSquare, long start, long deadline, int maxDepth) {
+        this.board = board;
+        this.deadline = deadline;
+        nodes = 0;
+        stopped = false;
+        completedDepth = 0;
+        bestScore = 0;
+        for (int[] killers : killerMoves) {
+            killers[0] = killers[1] = -1;
+        }
+
+        board.generateAllValidMoves(turn, enPassantSquare, rootMoves);
+        removeUnderpromotions(rootMoves);
+        if (rootMoves.isEmpty()) {
+            return null;
+        }
+        // helpers start on different root moves and depths so they fill the table with different subtrees
+        for (int i = 0; i < id % rootMoves.size(); i++) {
+            rootMoves.moveToFront(rootMoves.size() - 1);
+        }
+        int best = rootMoves.get(0);
+        for (int depth = 1 + (id & 1); depth <= maxDepth; depth++) {
+            // search the best move of the previous iteration first
+            rootMoves.moveToFront(rootMoves.indexOfFromTo(EncodedMove.getFromTo(best)));
+            int alpha = -INFINITY;
+            int iterationBest = EncodedMove.NONE;
+            for (int i = 0; i < rootMoves.size(); i++) {
+                int move = rootMoves.get(i);
+                board.playMove(move);
+                int score = -alphaBeta(depth - 1, -INFINITY, -alpha, opposite(turn),
+                        EncodedMove.getEnPassantSquareAfter(move), 1);
+                board.takeBackMove(move);
+                if (stopped) {
+                    break;
+                }
+                if (score > alpha) {
+                    alpha = score;
+                    iterationBest = move;
+                }
+            }
+            if (stopped) {
+                // the previous best is searched first, so a move found in an unfinished iteration is at least as good
+                if (iterationBest != EncodedMove.NONE) {
+                    best = iterationBest;
+                    bestScore = alpha;
+                }
+                break;
+            }
+            best = iterationBest;
+            bestScore = alpha;
+            completedDepth = depth;
+            // the main worker stops when a mate is found or when the next iteration cannot finish in time,
+            // helpers keep going until the main worker is done
+            if (id == 0 && (Math.abs(alpha) >= MATE_SCORE - MAX_PLY || System.nanoTime() - start > (deadline - start) / 2)) {
+                break;
+            }
+        }
+        return EncodedMove.toMove(board, best);
+    }
+
+    private int alphaBeta(int depth, int alpha, int beta, PieceColor turn, int enPassantSquare, int ply) {
+        if (checkStop()) {
+            return 0;
+        }
+        if (depth <= 0 || ply >= MAX_PLY) {
+            return quiescence(alpha, beta, turn, enPassantSquare, ply);
+        }
+        long key = Zobrist.positionKey(board, turn, enPassantSquare);
+        long entry = transpositionTable.probe(key);
+        int hashMove = TranspositionTable.NO_MOVE;
+        if (entry != 0) {
+            hashMove = TranspositionTable.getMove(entry);
+            if (TranspositionTable.getDepth(entry) >= depth) {
+                int score = scoreFromTable(TranspositionTable.getScore(entry), ply);
+                int bound = TranspositionTable.getBound(entry);
+                if (bound == TranspositionTable.BOUND_EXACT) {
+                    return Math.max(alpha, Math.min(beta, score));
+                } else if (bound == TranspositionTable.BOUND_LOWER && score >= beta) {
+                    return beta;
+                } else if (bound == TranspositionTable.BOUND_UPPER && score <= alpha) {
+                    return alpha;
+                }
+            }
+        }
+        IntMoveList moves = moveLists[ply];
+        board.generateAllValidMoves(turn, enPassantSquare, moves);
+        removeUnderpromotions(moves);
+        if (moves.isEmpty()) {
+            // checkmate (prefer the shortest) or stalemate
+            return board.isCheck(turn) ? -MATE_SCORE + ply : 0;
+        }
+        int[] scores = scoreMoves(moves, ply, hashMove);
+        int originalAlpha = alpha;
+        int bestMove = TranspositionTable.NO_MOVE;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = pickNext(moves, scores, i);
+            board.playMove(move);
+            int score = -alphaBeta(depth - 1, -beta, -alpha, opposite(turn),
+                    EncodedMove.getEnPassantSquareAfter(move), ply + 1);
+            board.takeBackMove(move);
+            if (stopped) {
+                return 0;
+            }
+            if (score >= beta) {
+                if (!EncodedMove.isCapture(move)) {
+                    storeKiller(move, ply);
+                }
+                transpositionTable.store(key, EncodedMove.getFromTo(move), depth, TranspositionTable.BOUND_LOWER,
+                        scoreToTable(beta, ply));
+                return beta;
+            }
+            if (score > alpha) {
+                alpha = score;
+                bestMove = EncodedMove.getFromTo(move);
+            }
+        }
+        int bound = (alpha > originalAlpha) ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER;
+        transpositionTable.store(key, bestMove, depth, bound, scoreToTable(alpha, ply));
+        return alpha;
+    }
+
+    // mate scores are stored relative to the position, not to the root, so they stay valid at another ply
+    private static int scoreToTable(int score, int ply) {
+        if (score >= MATE_SCORE - MAX_PLY) {
+            return score + ply;
+        } else if (score <= -MATE_SCORE + MAX_PLY) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    private static int scoreFromTable(int score, int ply) {
+        if (score >= MATE_SCORE - MAX_PLY) {
+            return score - ply;
+        } else if (score <= -MATE_SCORE + MAX_PLY) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    // only captures and promotions are searched so the static evaluation is not taken in the middle of an exchange
+    private int quiescence(int alpha, int beta, PieceColor turn, int enPassantSquare, int ply) {
+        if (checkStop()) {
+            return 0;
+        }
+        int standPat = Evaluator.evaluate(board, turn);
+        if (standPat >= beta) {
+            return beta;
+        }
+        if (ply >= MAX_PLY) {
+            return standPat;
+        }
+        if (standPat > alpha) {
+            alpha = standPat;
+        }
+        IntMoveList moves = moveLists[ply];
+        MoveGenerator.generateCaptures(board, turn, enPassantSquare, moves);
+        removeUnderpromotions(moves);
+        int[] scores = scoreMoves(moves, ply, TranspositionTable.NO_MOVE);
+        for (int i = 0; i < moves.size(); i++) {
+            int move = pickNext(moves, scores, i);
+            board.playMove(move);
+            int score = -quiescence(-beta, -alpha, opposite(turn), -1, ply + 1);
+            board.takeBackMove(move);
+            if (stopped) {
+                return 0;
+            }
+            if (score >= beta) {
+                return beta;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+        }
+        return alpha;
+    }
+
+    // the search only promotes to a queen
+    private static void removeUnderpromotions(IntMoveList moves) {
+        int kept = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            PieceType promotion = EncodedMove.getPromotion(move);
+            if (promotion == null || promotion == PieceType.QUEEN) {
+                moves.set(kept++, move);
+            }
+        }
+        moves.truncate(kept);
+    }
+
+    // move ordering: the move stored in the transposition table, promotions,
+    // then captures by most valuable victim / least valuable attacker, then killers
+    private int[] scoreMoves(IntMoveList moves, int ply, int hashMove) {
+        int[] scores = moveScores[ply];
+        if (scores.length < moves.size()) {
+            scores = moveScores[ply] = new int[moves.size()];
+        }
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            int fromTo = EncodedMove.getFromTo(move);
+            int score = 0;
+            if (hashMove != TranspositionTable.NO_MOVE && fromTo == hashMove) {
+                score += 100_000;
+            }
+            if (EncodedMove.isPromotion(move)) {
+                score += 20_000;
+            }
+            if (EncodedMove.isCapture(move)) {
+                score += 10_000 + 10 * Evaluator.PIECE_VALUES[EncodedMove.getCaptured(move).ordinal()]
+                        - Evaluator.PIECE_VALUES[EncodedMove.getMoving(move).ordinal()] / 10;
+            } else if (ply < MAX_PLY) {
+                if (fromTo == killerMoves[ply][0]) {
+                    score += 5_000;
+                } else if (fromTo == killerMoves[ply][1]) {
+                    score += 4_000;
+                }
+            }
+            scores[i] = score;
+        }
+        return scores;
+    }
+
+    // selection sort step: swap the best remaining move into position i
+    private static int pickNext(IntMoveList moves, int[] scores, int i) {
+        int best = i;
+        for (int j = i + 1; j < moves.size(); j++) {
+            if (scores[j] > scores[best]) {
+                best = j;
+            }
+        }
+        if (best != i) {
+            int score = scores[i];
+            scores[i] = scores[best];
+            scores[best] = score;
+            moves.swap(i, best);
+        }
+        return moves.get(i);
+    }
+
+    private void storeKiller(int move, int ply) {
+        int fromTo = EncodedMove.getFromTo(move);
+        if (killerMoves[ply][0] != fromTo) {
+            killerMoves[ply][1] = killerMoves[ply][0];
+            killerMoves[ply][0] = fromTo;
+        }
+    }
+
+    // the clock and the shared stop flag are only read every 1024 nodes
+    private boolean checkStop() {
+        if ((++nodes & 1023) == 0 && (engine.isStopRequested() || System.nanoTime() > deadline)) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    private static PieceColor opposite(PieceColor color) {
+        return (color == PieceColor.WHITE) ? PieceColor.BLACK : PieceColor.WHITE;
+    }
+
+    long getNodes() {
+        return nodes;
+    }
+
+    int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    int getBestScore() {
+        return bestScore;
+    }
+}
@@ -0,0 +1,50 @@
+package ddt.chess.engine;
+
+import ddt.chess.util.AnalysisResult;
+import ddt.chess.util.Stockfish;
+import ddt.chess.util.StockfishPool;
+
+import java.util.concurrent.TimeoutException;
+
+// analyses positions at full strength with engines leased from a StockfishPool
+// as many positions are analysed at once as the pool has engines
+public class StockfishAnalyzer implements PositionAnalyzer {
+    private static final long LEASE_TIMEOUT = 60_000; // how long a position waits for a free engine, in milliseconds
+
+    private final StockfishPool pool;
+    private final int moveTimeMillis;
+
+    public StockfishAnalyzer(StockfishPool pool, int moveTimeMillis) {
+        this.pool = pool;
+        this.moveTimeMillis = moveTimeMillis;
+    }
+
+    @Override
+    public AnalysisResult analyze(String fen) {
+        Stockfish stockfish;
+        try {
+            // positions are independent, so the analyzer is the only owner and engines skip ucinewgame
+            stockfish = pool.lease(this, LEASE_TIMEOUT);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a Stockfish engine", e);
+        }
+        try {
+            // a strategy may have limited the strength of this engine
+            stockfish.setFullStrength();
+            return stockfish.analyze(fen, moveTimeMillis);
+        } finally {
+            pool.release(stockfish);
+        }
+    }
+
+    public StockfishPool getPool() {
+        return pool;
+    }
+
+    public int getMoveTimeMillis() {
+        return moveTimeMillis;
+    }
+}
@@ -0,0 +1,211 @@
+package ddt.chess.engine;
+
+import ddt.chess.core.Game;
+import ddt.chess.core.MoveHistory;
+import ddt.chess.core.MoveValidator;
+import ddt.chess.core.PieceColor;
+import ddt.chess.util.Notation;
+import ddt.chess.util.Stockfish;
+import ddt.chess.util.StockfishPool;
+import ddt.chess.util.UciEvent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+// asks an external Stockfish process for the move
+// the process is leased from a StockfishPool for every move, so many games can share a few processes
+// when pondering is enabled the engine stays leased between moves to think on the opponent's time
+public class StockfishStrategy implements MoveStrategy {
+    public static final String DEFAULT_PATH = "resources/stockfish/stockfish-ubuntu-x86-64-avx2";
+    private static final int MOVE_TIME = 3000; // thinking time in untimed games, in milliseconds
+    private static final long LEASE_TIMEOUT = 60_000; // how long a move waits for a free engine, in milliseconds
+    private static final long BEST_MOVE_GRACE = 1000; // extra wait for the best move after the thinking time
+
+    // shared by every strategy created without a pool, one single-threaded engine per core at most
+    private static StockfishPool defaultPool;
+
+    private final StockfishPool pool;
+    private final int elo;
+    private boolean ponderingEnabled = false;
+
+    private volatile Stockfish searchingEngine; // engine of a running findBestMove, for stop
+    // engine kept between moves while pondering, with its search and the reply it expects
+    private Stockfish ponderEngine;
+    private CompletableFuture<UciEvent> ponderSearch;
+    private String expectedReply;
+    private int expectedHistorySize;
+
+    public StockfishStrategy(int elo) {
+        this(getDefaultPool(), elo);
+    }
+
+    public StockfishStrategy(StockfishPool pool, int elo) {
+        this.pool = pool;
+        this.elo = elo;
+    }
+
+    public static synchronized StockfishPool getDefaultPool() {
+        if (defaultPool == null) {
+            defaultPool = new StockfishPool(DEFAULT_PATH, Runtime.getRuntime().availableProcessors());
+        }
+        return defaultPool;
+    }
+
+    @Override
+    public String findBestMove(Game game) {
+        Stockfish stockfish = takePonderEngine();
+        if (stockfish != null) {
+            String move = finishPonder(stockfish, game);
+            if (move != null) {
+                keepOrRelease(stockfish);
+                return move;
+            }
+        }
+        if (stockfish == null) {
+            stockfish = lease();
+        }
+        searchingEngine = stockfish;
+        try {
+            stockfish.setEloLevel(elo);
+            String fen = Notation.gameToFEN(game);
+            if (game.isTimedGame()) {
+                return stockfish.getBestMoveWithTimeManagement(fen,
+                        game.getWhiteClock().getRemainingTimeMillis(), game.getBlackClock().getRemainingTimeMillis());
+            }
+            return stockfish.getBestMove(fen, MOVE_TIME);
+        } finally {
+            searchingEngine = null;
+            keepOrRelease(stockfish);
+        }
+    }
+
+    @Override
+    public void stop() {
+        Stockfish stockfish = searchingEngine;
+        if (stockfish != null) {
+            stockfish.stopSearch();
+        }
+    }
+
+    // the engine thinks in the position after the reply it expects to its last move
+    @Override
+    public synchronized void ponder(Game game) {
+        if (!ponderingEnabled || ponderEngine == null || ponderSearch != null) {
+            return;
+        }
+        String reply = ponderEngine.getPonderMove();
+        if (reply == null) {
+            return;
+        }
+        expectedReply = reply;
+        expectedHistorySize = game.getHistory().getSize() + 1;
+        ponderSearch = ponderEngine.startPonder(Notation.gameToFEN(game), reply, goParameters(game));
+    }
+
+    /**
+     * Enable or disable thinking on the opponent's time, off by default
+     * A pondering strategy keeps its engine leased between moves
+     * @param enabled True to ponder
+     */
+    public synchronized void setPondering(boolean enabled) {
+        ponderingEnabled = enabled;
+        if (!enabled && ponderEngine != null) {
+            if (ponderSearch != null) {
+                ponderEngine.cancelSearch(ponderSearch);
+                ponderSearch = null;
+            }
+            ponderEngine.setPonder(false);
+            pool.release(ponderEngine);
+            ponderEngine = null;
+        }
+    }
+
+    public synchronized boolean isPondering() {
+        return ponderSearch != null;
+    }
+
+    public StockfishPool getPool() {
+        return pool;
+    }
+
+    public int getElo() {
+        return elo;
+    }
+
+    private synchronized Stockfish takePonderEngine() {
+        Stockfish res = ponderEngine;
+        ponderEngine = null;
+        return res;
+    }
+
+    // a pondering strategy keeps the engine for the next ponder, otherwise it goes back to the pool
+    private synchronized void keepOrRelease(Stockfish stockfish) {
+        if (ponderingEnabled && stockfish.isAlive()) {
+            stockfish.setPonder(true);
+            ponderEngine = stockfish;
+        } else {
+            pool.release(stockfish);
+        }
+    }
+
+    // the best move of the ponder search if the opponent played the expected reply, otherwise null
+    private String finishPonder(Stockfish stockfish, Game game) {
+        CompletableFuture<UciEvent> search;
+        boolean hit;
+        synchronized (this) {
+            search = ponderSearch;
+            ponderSearch = null;
+            if (search == null) {
+                return null;
+            }
+            // the promotion piece is not in the history, so a promotion never counts as the expected reply
+            MoveHistory history = game.getHistory();
+            hit = history.getSize() == expectedHistorySize
+                    && !MoveValidator.isValidPromotion(history.getLastMove())
+                    && SearchEngine.toUci(history.getLastMove()).equals(expectedReply);
+        }
+        if (!hit) {
+            stockfish.cancelSearch(search);
+            return null;
+        }
+        searchingEngine = stockfish;
+        try {
+            stockfish.ponderHit();
+            UciEvent event = stockfish.awaitBestMove(search, moveTimeLimit(game) + BEST_MOVE_GRACE);
+            return (event == null) ? null : event.getBestMove();
+        } finally {
+            searchingEngine = null;
+        }
+    }
+
+    private Stockfish lease() {
+        try {
+            // the strategy belongs to one game, so it is the owner of the lease
+            return pool.lease(this, LEASE_TIMEOUT);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a Stockfish engine", e);
+        }
+    }
+
+    // same time controls as Stockfish.getBestMove and Stockfish.getBestMoveWithTimeManagement
+    private static String goParameters(Game game) {
+        if (!game.isTimedGame()) {
+            return "movetime " + MOVE_TIME;
+        }
+        return "wtime " + game.getWhiteClock().getRemainingTimeMillis()
+                + " btime " + game.getBlackClock().getRemainingTimeMillis()
+                + " winc 0 binc 0 movestogo 40";
+    }
+
+    private static long moveTimeLimit(Game game) {
+        if (!game.isTimedGame()) {
+            return MOVE_TIME;
+        }
+        long availableTime = (game.getCurrentTurn() == PieceColor.WHITE)
+                ? game.getWhiteClock().getRemainingTimeMillis() : game.getBlackClock().getRemainingTimeMillis();
+        return Math.min(availableTime / 10, 30000);
+    }
+}
@@ -0,0 +1,145 @@
+package ddt.chess.engine;
+
+import java.util.Arrays;
+
+// fixed-size hash table of search results that many search threads can read and write without locks
+// every entry is two longs: (key XOR data) and data
+// a reader only accepts an entry when XORing the two slots gives back its own key,
+// so an entry half-written by another thread is seen as a miss instead of a wrong result
+public class TranspositionTable {
+    public static final int BOUND_EXACT = 1;
+    public static final int BOUND_LOWER = 2; // score is at least the stored value (beta cutoff)
+    public static final int BOUND_UPPER = 3; // score is at most the stored value (no move raised alpha)
+
+    public static final int NO_MOVE = 0xFFFF;
+
+    // data layout: move 16 bits | depth 8 bits | bound 2 bits | age 6 bits | score 32 bits
+    private static final int DEPTH_SHIFT = 16;
+    private static final int BOUND_SHIFT = 24;
+    private static final int AGE_SHIFT = 26;
+    private static final int SCORE_SHIFT = 32;
+
+    // the number of entries is a power of two, readers take the index mask from the array they read
+    // so a concurrent resize can never make them index out of bounds
+    private volatile long[] entries;
+    private volatile int age;
+
+    public TranspositionTable(int sizeInMB) {
+        entries = allocate(sizeInMB);
+    }
+
+    /**
+     * Resize the table, this drops every stored entry
+     * @param sizeInMB Size in megabytes, rounded down to a power of two number of entries
+     */
+    public synchronized void setHashSize(int sizeInMB) {
+        entries = allocate(sizeInMB);
+    }
+
+    // also called from the constructor, so it has to stay private
+    private static long[] allocate(int sizeInMB) {
+        long bytes = Math.max(1, sizeInMB) * 1024L * 1024L;
+        long count = Long.highestOneBit(bytes / 16); // 16 bytes per entry
+        count = Math.min(count, 1L << 29); // the backing array is limited to 2^31 - 1 longs
+        return new long[(int) count * 2];
+    }
+
+    /**
+     * Clear every entry
+     */
+    public synchronized void clear() {
+        Arrays.fill(entries, 0L);
+        age = 0;
+    }
+
+    /**
+     * Start a new search, entries from older searches are replaced first
+     */
+    public void newSearch() {
+        age = (age + 1) & 0x3F;
+    }
+
+    /**
+     * Look up a position
+     * @param key Zobrist key of the position
+     * @return Packed entry data (read with the static getters), or 0 if the position is not stored
+     */
+    public long probe(long key) {
+        long[] table = entries;
+        int index = ((int) key & ((table.length >> 1) - 1)) << 1;
+        long data = table[index + 1];
+        if (data == 0 || (table[index] ^ data) != key) {
+            return 0;
+        }
+        return data;
+    }
+
+    /**
+     * Store a search result, replacing the old entry if it is from an older search,
+     * for another position or searched less deep
+     */
+    public void store(long key, int move, int depth, int bound, int score) {
+        long[] table = entries;
+        int index = ((int) key & ((table.length >> 1) - 1)) << 1;
+        long oldData = table[index + 1];
+        boolean samePosition = (table[index] ^ oldData) == key;
+        if (oldData != 0 && getAge(oldData) == age && depth < getDepth(oldData)) {
+            if (!samePosition) {
+                // keep the deeper result of another position from this search
+                return;
+            }
+            // same position searched deeper before: only keep its move if we have none
+            if (move == NO_MOVE) {
+                return;
+            }
+        }
+        if (move == NO_MOVE && samePosition) {
+            move = getMove(oldData);
+        }
+        long data = (move & 0xFFFFL)
+                | ((long) Math.min(depth, 255) << DEPTH_SHIFT)
+                | ((long) bound << BOUND_SHIFT)
+                | ((long) age << AGE_SHIFT)
+                | ((long) score << SCORE_SHIFT);
+        table[index] = key ^ data;
+        table[index + 1] = data;
+    }
+
+    // permille of entries written by the current search, like UCI's hashfull
+    public int getHashFull() {
+        long[] table = entries;
+        int sample = Math.min(1000, table.length >> 1);
+        int used = 0;
+        for (int i = 0; i < sample; i++) {
+            long data = table[i * 2 + 1];
+            if (data != 0 && getAge(data) == age) {
+                used++;
+            }
+        }
+        return used * 1000 / sample;
+    }
+
+    public int getSizeInEntries() {
+        return entries.length >> 1;
+    }
+
+    public static int getMove(long data) {
+        return (int) (data & 0xFFFF);
+    }
+
+    public static int getDepth(long data) {
+        return (int) ((data >>> DEPTH_SHIFT) & 0xFF);
+    }
+
+    public static int getBound(long data) {
+        return (int) ((data >>> BOUND_SHIFT) & 0x3);
+    }
+
+    public static int getAge(long data) {
+        return (int) ((data >>> AGE_SHIFT) & 0x3F);
+    }
+
+    public static int getScore(long data) {
+        return (int) (data >> SCORE_SHIFT);
+    }
+}
@@ -64,6 +64,10 @@ public class BoardPanel extends JPanel {
     }
 
     private void handleSquareClick(int x, int y) {
+        // the board belongs to the computer until it has moved
+        if (game instanceof ComputerGame computerGame && computerGame.isComputerThinking()) {
+            return;
+        }
         Board board = game.getBoard();
         Square clickedSquare = board.getSquare(y, x);
 
@@ -120,8 +124,11 @@ public class BoardPanel extends JPanel {
                 // execute stockfish move if player has made a valid move
                 if (game instanceof ComputerGame computerGame
                         && computerGame.getPlayerSide() != game.getCurrentTurn()) {
-                    SwingUtilities.invokeLater(() -> {
-                        Move computerMove = computerGame.executeComputerMove();
+                    // the computer thinks in the background, its move is made on the event dispatch thread
+                    computerGame.requestComputerMove(SwingUtilities::invokeLater).thenAccept(computerMove -> {
+                        if (computerMove == null) {
+                            return;
+                        }
 
                         // Notify the SettingPanel about the computer's move (for timer)
                         if (settingPanel != null) {
@@ -174,7 +181,7 @@ public class BoardPanel extends JPanel {
         PieceColor color = selectedSquare.getPiece().getColor();
 
         // Get all valid moves for this color
-        ArrayList<Move> allValidMoves = board.generateAllValidMoves(color, game.getHistory());
+        ArrayList<Move> allValidMoves = board.generateAllValidMoves(color);
 
         // Filter moves starting from the selected square
         for (Move move : allValidMoves) {
@@ -186,7 +193,7 @@ public class BoardPanel extends JPanel {
                 // we don't need to apply highlights here anymore since we'll draw circles in drawMoveHints
 
                 // debug: display information about en passant moves
-                if (MoveValidator.isValidEnPassant(game.getBoard(), move, game.getHistory())) {
+                if (MoveValidator.isValidEnPassant(game.getBoard(), move)) {
                     System.out.println("found en passant move from " +
                             move.getFromSquare().getX() + "," + move.getFromSquare().getY() +
                             " to " + move.getToSquare().getX() + "," + move.getToSquare().getY());
@@ -259,7 +266,7 @@ public class BoardPanel extends JPanel {
 
                 // Special highlighting for en passant
                 Move testMove = new Move(selectedSquare, square);
-                if (MoveValidator.isValidEnPassant(game.getBoard(), testMove, game.getHistory())) {
+                if (MoveValidator.isValidEnPassant(game.getBoard(), testMove)) {
                     g2D.setColor(new Color(255, 0, 255, 180)); // Magenta color for en passant
                     g2D.setStroke(new BasicStroke(3));
                     g2D.drawOval(x + 2, y + 2, squareSize - 4, squareSize - 4);
@@ -63,6 +63,9 @@ public class BoardPanel extends JPanel implements MouseListener {
 
     @Override
     public void mousePressed(MouseEvent e) {
+        if (game instanceof ComputerGame computerGame && computerGame.isComputerThinking()) {
+            return;
+        }
         Square clickedSquare = getSquareFromMouseEvent(e);
 
         if (fromSquare == null) {
@@ -106,8 +109,10 @@ public class BoardPanel extends JPanel implements MouseListener {
                     // execute stockfish move if player has made a valid move
                     if (game instanceof ComputerGame computerGame
                             && computerGame.getPlayerSide() != game.getCurrentTurn()) {
-                        SwingUtilities.invokeLater(() -> {
-                            Move computerMove = computerGame.executeComputerMove();
+                        computerGame.requestComputerMove(SwingUtilities::invokeLater).thenAccept(computerMove -> {
+                            if (computerMove == null) {
+                                return;
+                            }
                             clearHighlights();
                             highlightSquare(computerMove.getFromSquare());
                             highlightSquare(computerMove.getToSquare());
@@ -175,7 +180,7 @@ public class BoardPanel extends JPanel implements MouseListener {
     }
 
     public void generateValidToSquares(Square fromSquare) {
-        ArrayList<Move> validMoves = board.generateAllValidMoves(game.getCurrentTurn(), game.getHistory());
+        ArrayList<Move> validMoves = board.generateAllValidMoves(game.getCurrentTurn());
         for (Move move : validMoves) {
             if (move.getFromSquare().equals(fromSquare)) {
                 validToSquares.add(move.getToSquare());
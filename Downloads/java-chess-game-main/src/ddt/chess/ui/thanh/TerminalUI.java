@@ -208,7 +208,7 @@ public class TerminalUI {
     }
 
     public void printAllValidMoves(Board board, PieceColor turn, MoveHistory history) {
-        ArrayList<Move> validMoves = board.generateAllValidMoves(turn, history);
+        ArrayList<Move> validMoves = board.generateAllValidMoves(turn);
         System.out.print("Valid moves: ");
         for (Move move : validMoves) {
             if (MoveValidator.isValidEnPassantPattern(move)) {
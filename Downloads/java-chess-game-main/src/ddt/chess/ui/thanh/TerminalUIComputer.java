@@ -84,7 +84,7 @@ public class TerminalUIComputer {
     }
 
     public void printAllValidMoves(Board board, PieceColor turn, MoveHistory history) {
-        ArrayList<Move> validMoves = board.generateAllValidMoves(turn, history);
+        ArrayList<Move> validMoves = board.generateAllValidMoves(turn);
         System.out.print("Valid moves: ");
         for (Move move : validMoves) {
             if (MoveValidator.isValidEnPassantPattern(move)) {
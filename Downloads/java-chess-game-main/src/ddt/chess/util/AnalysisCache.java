@@ -0,0 +1,128 @@
+package ddt.chess.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// bounded cache of engine search results, the least recently used entry is evicted when it is full
+// entries are keyed by the Zobrist key of the position mixed with the search limit and the engine strength,
+// so one cache can be shared by every engine of a StockfishPool
+public class AnalysisCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    private final LinkedHashMap<Long, AnalysisResult> entries; // guarded by this, in access order
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public AnalysisCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty cache
+     * @param capacity Maximum number of entries
+     */
+    public AnalysisCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, AnalysisResult> eldest) {
+                if (size() > AnalysisCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Key a search request, equal requests get equal keys
+     * @param positionKey Zobrist key of the position, see Zobrist.positionKey
+     * @param moveTime Thinking time in milliseconds
+     * @param multiPV Number of principal variations
+     * @param elo Strength of the engine, -1 if it is not limited
+     * @return The position key mixed with the search parameters
+     */
+    public static long key(long positionKey, int moveTime, int multiPV, int elo) {
+        long params = ((long) moveTime << 32) | ((long) (multiPV & 0xFF) << 24) | (elo & 0xFFFFFFL);
+        return positionKey ^ mix(params);
+    }
+
+    // SplitMix64 finalizer, spreads the few bits that differ between search parameters over the whole key
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Look up a search result, counting a hit or a miss
+     * @param key Key from AnalysisCache.key
+     * @return The cached entry, or null if there is none
+     */
+    public synchronized AnalysisResult get(long key) {
+        AnalysisResult entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Store a search result, evicting the least recently used one if the cache is full
+     * @param key Key from AnalysisCache.key
+     * @param entry Result of the search
+     */
+    public synchronized void put(long key, AnalysisResult entry) {
+        entries.put(key, entry);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the share of lookups that found an entry
+     * @return Hit ratio between 0 and 1, 0 if nothing was looked up
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return (lookups == 0) ? 0 : (double) hits / lookups;
+    }
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("AnalysisCache[%d/%d entries, %d hits, %d misses, %.1f%% hit ratio, %d evictions]",
+                entries.size(), capacity, hits, misses, getHitRatio() * 100, evictions);
+    }
+}
@@ -0,0 +1,331 @@
+package ddt.chess.util;
+
+import ddt.chess.core.Board;
+import ddt.chess.core.Move;
+import ddt.chess.core.PieceType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// result of an engine search: the best move and the last reported line of every principal variation
+// info lines are parsed one at a time as the engine sends them, so the output is never split again
+public class AnalysisResult {
+    private final Line[] lines; // index is the multipv number - 1
+    private String bestMove; // null if the engine has no move
+    private String ponderMove; // null if the engine did not send one
+
+    // one principal variation, as reported by an info line
+    public static class Line {
+        private int multiPV = 1;
+        private int depth;
+        private int selDepth;
+        private long nodes;
+        private long nodesPerSecond;
+        private long timeMillis;
+        private int score; // centipawns, or moves to mate if mate, from the side to move
+        private boolean mate;
+        private boolean hasScore;
+        private boolean bound; // the score is only a lower or upper bound
+        private List<String> moves = Collections.emptyList();
+
+        private Line() {
+        }
+
+        public int getMultiPV() {
+            return multiPV;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public int getSelDepth() {
+            return selDepth;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getNodesPerSecond() {
+            return nodesPerSecond;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public boolean isMate() {
+            return mate;
+        }
+
+        public boolean hasScore() {
+            return hasScore;
+        }
+
+        public boolean isBound() {
+            return bound;
+        }
+
+        // moves in UCI format
+        public List<String> getMoves() {
+            return moves;
+        }
+
+        /**
+         * Convert the variation to moves on a board, each move is played to read the next one
+         * @param board Board in the analysed position, it is the same again when this returns
+         * @return Moves of the variation, up to the first one that does not fit the board
+         */
+        public List<Move> getMoves(Board board) {
+            List<Move> res = new ArrayList<>(moves.size());
+            for (String uci : moves) {
+                if (uci.length() < 4 || Notation.getSquareFromNotation(board, uci.substring(0, 2)) == null
+                        || Notation.getSquareFromNotation(board, uci.substring(2, 4)) == null) {
+                    break;
+                }
+                Move move = Notation.stockfishOutputToMove(board, uci.substring(0, 4));
+                if (move.getMovingPiece() == null) {
+                    break;
+                }
+                PieceType promotion = (uci.length() == 5) ? Notation.getPieceTypeFromLetter(Character.toUpperCase(uci.charAt(4))) : null;
+                board.playMove(move, promotion);
+                res.add(move);
+            }
+            for (int i = res.size() - 1; i >= 0; i--) {
+                board.takeBackMove(res.get(i));
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Create an empty result for a search
+     * @param multiPV Number of principal variations the engine was asked for
+     */
+    public AnalysisResult(int multiPV) {
+        lines = new Line[Math.max(1, multiPV)];
+    }
+
+    /**
+     * Create the result of a search that did not report through UCI, e.g. of the in-process engine
+     * @param bestMove Best move in UCI format, null if there is none
+     * @param depth Completed depth
+     * @param nodes Nodes searched
+     * @param timeMillis Time the search took
+     * @param score Centipawns, or moves to mate if mate, from the side to move
+     * @param mate True if score counts moves to mate
+     * @return Result with a single principal variation of the best move
+     */
+    public static AnalysisResult of(String bestMove, int depth, long nodes, long timeMillis, int score, boolean mate) {
+        AnalysisResult res = new AnalysisResult(1);
+        res.bestMove = bestMove;
+        Line line = new Line();
+        line.depth = depth;
+        line.selDepth = depth;
+        line.nodes = nodes;
+        line.timeMillis = timeMillis;
+        line.nodesPerSecond = (timeMillis == 0) ? 0 : nodes * 1000 / timeMillis;
+        line.score = score;
+        line.mate = mate;
+        line.hasScore = true;
+        line.moves = (bestMove == null) ? Collections.emptyList() : List.of(bestMove);
+        res.lines[0] = line;
+        return res;
+    }
+
+    /**
+     * Parse an info line of a UCI engine in one pass over its characters
+     * @param info The line
+     * @return The parsed line, or null if it has no principal variation (e.g. "info string", "info currmove")
+     */
+    public static Line parseInfo(String info) {
+        Line res = new Line();
+        int length = info.length();
+        int i = info.indexOf("info");
+        if (i == -1) {
+            return null;
+        }
+        // the words after "info" are keys, most of them followed by a value
+        i += 4;
+        while (i < length) {
+            while (i < length && info.charAt(i) == ' ') {
+                i++;
+            }
+            int start = i;
+            while (i < length && info.charAt(i) != ' ') {
+                i++;
+            }
+            int end = i;
+            if (isWord(info, start, end, "pv")) {
+                List<String> moves = new ArrayList<>();
+                while (i < length) {
+                    while (i < length && info.charAt(i) == ' ') {
+                        i++;
+                    }
+                    int moveStart = i;
+                    while (i < length && info.charAt(i) != ' ') {
+                        i++;
+                    }
+                    if (i > moveStart) {
+                        moves.add(info.substring(moveStart, i));
+                    }
+                }
+                res.moves = Collections.unmodifiableList(moves);
+                return res;
+            }
+            if (isWord(info, start, end, "string")) {
+                // the rest of the line is free text
+                return null;
+            }
+            if (isWord(info, start, end, "lowerbound") || isWord(info, start, end, "upperbound")) {
+                res.bound = true;
+                continue;
+            }
+            boolean score = isWord(info, start, end, "score");
+            if (score) {
+                // score cp <x> or score mate <y>, the value follows the unit
+                while (i < length && info.charAt(i) == ' ') {
+                    i++;
+                }
+                res.mate = info.startsWith("mate", i);
+                res.hasScore = true;
+                while (i < length && info.charAt(i) != ' ') {
+                    i++;
+                }
+            }
+            // the value of the key is the next word
+            while (i < length && info.charAt(i) == ' ') {
+                i++;
+            }
+            int valueStart = i;
+            while (i < length && info.charAt(i) != ' ') {
+                i++;
+            }
+            long value = parseLong(info, valueStart, i);
+            if (score) {
+                res.score = (int) value;
+            } else if (isWord(info, start, end, "depth")) {
+                res.depth = (int) value;
+            } else if (isWord(info, start, end, "seldepth")) {
+                res.selDepth = (int) value;
+            } else if (isWord(info, start, end, "multipv")) {
+                res.multiPV = (int) value;
+            } else if (isWord(info, start, end, "nodes")) {
+                res.nodes = value;
+            } else if (isWord(info, start, end, "nps")) {
+                res.nodesPerSecond = value;
+            } else if (isWord(info, start, end, "time")) {
+                res.timeMillis = value;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isWord(String s, int start, int end, String word) {
+        return end - start == word.length() && s.startsWith(word, start);
+    }
+
+    // parses a signed decimal number, 0 if there is none
+    private static long parseLong(String s, int start, int end) {
+        boolean negative = start < end && s.charAt(start) == '-';
+        long res = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            res = res * 10 + (c - '0');
+        }
+        return negative ? -res : res;
+    }
+
+    /**
+     * Add an info line of the search, it replaces the earlier line of its principal variation
+     * A bound is only kept until an exact score for the variation arrives
+     * @param info The line
+     */
+    void addInfo(String info) {
+        Line line = parseInfo(info);
+        if (line == null || line.multiPV < 1 || line.multiPV > lines.length) {
+            return;
+        }
+        Line previous = lines[line.multiPV - 1];
+        if (line.bound && previous != null && !previous.bound && previous.depth >= line.depth) {
+            return;
+        }
+        lines[line.multiPV - 1] = line;
+    }
+
+    void setBestMove(UciEvent event) {
+        bestMove = event.getBestMove();
+        ponderMove = event.getPonderMove();
+    }
+
+    public String getBestMove() {
+        return bestMove;
+    }
+
+    public String getPonderMove() {
+        return ponderMove;
+    }
+
+    // principal variations, best first
+    public List<Line> getLines() {
+        List<Line> res = new ArrayList<>(lines.length);
+        for (Line line : lines) {
+            if (line != null) {
+                res.add(line);
+            }
+        }
+        return res;
+    }
+
+    // the best principal variation, null if the engine sent none
+    public Line getBestLine() {
+        return lines[0];
+    }
+
+    public boolean hasScore() {
+        return lines[0] != null && lines[0].hasScore;
+    }
+
+    public int getScore() {
+        return (lines[0] == null) ? 0 : lines[0].score;
+    }
+
+    public boolean isMate() {
+        return lines[0] != null && lines[0].mate;
+    }
+
+    public int getDepth() {
+        return (lines[0] == null) ? 0 : lines[0].depth;
+    }
+
+    public long getNodes() {
+        return (lines[0] == null) ? 0 : lines[0].nodes;
+    }
+
+    public long getNodesPerSecond() {
+        return (lines[0] == null) ? 0 : lines[0].nodesPerSecond;
+    }
+
+    // moves of the best principal variation in UCI format
+    public List<String> getPrincipalVariation() {
+        return (lines[0] == null) ? Collections.emptyList() : lines[0].moves;
+    }
+
+    /**
+     * Get the best principal variation as moves on a board
+     * @param board Board in the analysed position, it is the same again when this returns
+     * @return Moves of the variation
+     */
+    public List<Move> getPrincipalVariation(Board board) {
+        return (lines[0] == null) ? Collections.emptyList() : lines[0].getMoves(board);
+    }
+}
@@ -148,135 +148,258 @@ public class Notation {
     }
 
     public static String moveToUnicodeAlgebraicNotation(Board board, Move move) {
-        StringBuilder res = new StringBuilder();
-        boolean isPawn = move.getMovingPiece().getType() == PieceType.PAWN;
-        int fromSquareX = move.getFromSquare().getX();
-        int fromSquareY = move.getFromSquare().getY();
-        // castling
-        if (move.getMoveType() == MoveType.CASTLING) {
-            return (fromSquareY < move.getToSquare().getY()) ? "O-O" : "O-O-O";
+        return sanToUnicode(moveToAlgebraicNotation(board, move));
+    }
+
+    // disambiguation flags of an encoded move for SAN, above the bits EncodedMove uses
+    public static final int SAN_FILE = 1 << 25; // the file of the moving piece has to be given
+    public static final int SAN_RANK = 1 << 26; // the rank of the moving piece has to be given
+
+    /**
+     * Find out which part of the from square the SAN of a move needs
+     * The legal moves of the position are already generated, so no piece has to be looked at again
+     * @param move Encoded move, one of legalMoves
+     * @param legalMoves The legal moves of the position before the move
+     * @return The move with SAN_FILE and/or SAN_RANK set if another piece of its type can reach the same square
+     */
+    public static int disambiguate(int move, IntMoveList legalMoves) {
+        PieceType moving = EncodedMove.getMoving(move);
+        if (moving == PieceType.PAWN || moving == PieceType.KING) {
+            return move;
         }
-        if (!isPawn) {
-            res.append(getUnicodePieceSymbolFromType(move.getMovingPiece().getType()));
+        int from = EncodedMove.getFrom(move);
+        int to = EncodedMove.getTo(move);
+        boolean ambiguous = false;
+        boolean sameFile = false;
+        boolean sameRank = false;
+        for (int i = 0; i < legalMoves.size(); i++) {
+            int other = legalMoves.get(i);
+            int otherFrom = EncodedMove.getFrom(other);
+            if (EncodedMove.getTo(other) == to && otherFrom != from && EncodedMove.getMoving(other) == moving) {
+                ambiguous = true;
+                sameFile |= (otherFrom & 7) == (from & 7);
+                sameRank |= (otherFrom >>> 3) == (from >>> 3);
+            }
         }
-        if (isPawn) {
-            // pawns only and always have to specify the file when capturing
-            // so no checking is needed
-            if (move.isCapture() || MoveValidator.isValidEnPassantPattern(move)) {
-                res.append(Notation.squareToNotation(move.getFromSquare()).charAt(0));
+        return withDisambiguation(move, ambiguous, sameFile, sameRank);
+    }
+
+    private static int withDisambiguation(int move, boolean ambiguous, boolean sameFile, boolean sameRank) {
+        if (!ambiguous) {
+            return move;
+        }
+        // the file if it tells the pieces apart, else the rank, else both
+        if (!sameFile) {
+            return move | SAN_FILE;
+        }
+        return sameRank ? move | SAN_FILE | SAN_RANK : move | SAN_RANK;
+    }
+
+    /**
+     * Append the SAN of a move to a builder, the board is not needed since the move carries everything
+     * @param move Encoded move with its disambiguation, see disambiguate
+     * @param out Builder to append to
+     */
+    public static void appendSAN(int move, StringBuilder out) {
+        int from = EncodedMove.getFrom(move);
+        int to = EncodedMove.getTo(move);
+        if (EncodedMove.isCastling(move)) {
+            out.append(((to & 7) > (from & 7)) ? "O-O" : "O-O-O");
+            return;
+        }
+        PieceType moving = EncodedMove.getMoving(move);
+        boolean capture = EncodedMove.isCapture(move) || EncodedMove.isEnPassant(move);
+        if (moving != PieceType.PAWN) {
+            out.append(Character.toUpperCase(moving.getPieceLetter()));
+            if ((move & SAN_FILE) != 0) {
+                out.append((char) ('a' + (from & 7)));
             }
-        } else {
-            for (int i = 0; i < 8; i++) {
-                for (int j = 0; j < 8; j++) {
-                    if (i == fromSquareX && j == fromSquareY) {
-                        continue;
-                    }
-                    Square otherSquare = board.getSquare(i, j);
-                    Piece otherPiece = otherSquare.getPiece();
-                    Move otherMove = new Move(otherSquare, move.getToSquare());
-                    if (otherPiece != null
-                            && otherPiece.getColor() == move.getMovingPiece().getColor()
-                            && otherPiece.getType() == move.getMovingPiece().getType()) {
-                        if (MoveValidator.isValidNormalMove(board, otherMove)) {
-                            if (otherSquare.getX() == fromSquareX) {
-                                // if there is another piece of the same type in the same rank
-                                // then specify the file
-                                res.append(Notation.squareToNotation(move.getFromSquare()).charAt(0));
-                            }
-                            if (otherSquare.getY() == fromSquareY) {
-                                // if there is another piece of the same type in the same file
-                                // then specify the rank
-                                res.append(Notation.squareToNotation(move.getFromSquare()).charAt(1));
-                            }
-                            // if neither but the other piece can still move to that same square
-                            // then specify the rank
-                            res.append(Notation.squareToNotation(move.getFromSquare()).charAt(0));
-                        }
-                    }
-                }
+            if ((move & SAN_RANK) != 0) {
+                out.append((char) ('8' - (from >>> 3)));
             }
+        } else if (capture) {
+            out.append((char) ('a' + (from & 7)));
         }
-        if (move.isCapture() || MoveValidator.isValidEnPassantPattern(move)) {
-            res.append('x');
+        if (capture) {
+            out.append('x');
         }
-        res.append(Notation.squareToNotation(move.getToSquare()));
-        // check for promotion
-        if (MoveValidator.isValidPromotion(move)) {
-            char promotedToPieceLetter = move.getToSquare().getPiece().getType().getPieceLetter();
-            res.append('=').append(Character.toUpperCase(promotedToPieceLetter));
+        out.append((char) ('a' + (to & 7))).append((char) ('8' - (to >>> 3)));
+        PieceType promotion = EncodedMove.getPromotion(move);
+        if (promotion != null) {
+            out.append('=').append(Character.toUpperCase(promotion.getPieceLetter()));
         }
-        return res.toString();
     }
 
-    public static String gameToFEN(Game game) {
-        String res = "";
-        Board board = game.getBoard();
-
-        // turn
-        char turn = (game.getCurrentTurn() == PieceColor.WHITE) ? 'w' : 'b';
-
-        // possible en passant target
-        String possibleEnPassantTarget = "";
-        if (!game.getHistory().isEmpty()) {
-            Move lastMove = game.getHistory().getLastMove();
-            if (MoveValidator.isDoublePawnPush(lastMove)) {
-                int xDirection = (lastMove.getMovingPiece().isWhite()) ? -1 : 1;
-                Square enPassantCaptureSquare = board.getSquare(lastMove.getToSquare().getX() - xDirection, lastMove.getToSquare().getY());
-                possibleEnPassantTarget += squareToNotation(enPassantCaptureSquare);
+    /**
+     * Find the legal move a SAN stands for, check marks and annotations after it are allowed
+     * Castling may be written with zeros and the '=' of a promotion may be left out, as some databases do
+     * @param san SAN of the move, e.g. "Nbd7", "exd6", "e8=Q+", "O-O"
+     * @param legalMoves Legal moves of the position, as Board.generateAllValidMoves fills them
+     * @return The encoded move, or EncodedMove.NONE if no legal move or more than one fits
+     */
+    public static int parseSAN(String san, IntMoveList legalMoves) {
+        int end = san.length();
+        while (end > 0 && "+#!?".indexOf(san.charAt(end - 1)) != -1) {
+            end--;
+        }
+        if (end == 0) {
+            return EncodedMove.NONE;
+        }
+        if (san.startsWith("O-O") || san.startsWith("0-0")) {
+            boolean queenside = san.startsWith("O-O-O") || san.startsWith("0-0-0");
+            for (int i = 0; i < legalMoves.size(); i++) {
+                int move = legalMoves.get(i);
+                if (EncodedMove.isCastling(move)
+                        && ((EncodedMove.getTo(move) & 7) < (EncodedMove.getFrom(move) & 7)) == queenside) {
+                    return move;
+                }
             }
+            return EncodedMove.NONE;
         }
-        if (possibleEnPassantTarget.isEmpty()) {
-            possibleEnPassantTarget += '-';
+        // the piece letter, then the from file and/or rank, the destination and the promotion
+        int start = 0;
+        PieceType moving = PieceType.PAWN;
+        if ("KQRBN".indexOf(san.charAt(0)) != -1) {
+            moving = getPieceTypeFromLetter(san.charAt(0));
+            start = 1;
         }
-
-        // castling rights
-        String castlingRights = "";
-        if (MoveValidator.canCastleKingside(board, PieceColor.WHITE)) {
-            castlingRights += 'K';
+        PieceType promotion = null;
+        if (end - start >= 3 && "QRBN".indexOf(san.charAt(end - 1)) != -1) {
+            promotion = getPieceTypeFromLetter(san.charAt(end - 1));
+            end--;
+            if (san.charAt(end - 1) == '=') {
+                end--;
+            }
         }
-        if (MoveValidator.canCastleQueenside(board, PieceColor.WHITE)) {
-            castlingRights += 'Q';
+        if (end - start < 2) {
+            return EncodedMove.NONE;
         }
-        if (MoveValidator.canCastleKingside(board, PieceColor.BLACK)) {
-            castlingRights += 'k';
+        char toFile = san.charAt(end - 2);
+        char toRank = san.charAt(end - 1);
+        if (toFile < 'a' || toFile > 'h' || toRank < '1' || toRank > '8') {
+            return EncodedMove.NONE;
         }
-        if (MoveValidator.canCastleQueenside(board, PieceColor.BLACK)) {
-            castlingRights += 'q';
+        int to = ('8' - toRank) * 8 + (toFile - 'a');
+        int fromFile = -1;
+        int fromRank = -1;
+        for (int i = start; i < end - 2; i++) {
+            char c = san.charAt(i);
+            if (c >= 'a' && c <= 'h') {
+                fromFile = c - 'a';
+            } else if (c >= '1' && c <= '8') {
+                fromRank = '8' - c;
+            } else if (c != 'x' && c != ':' && c != '-') {
+                return EncodedMove.NONE;
+            }
+        }
+        int res = EncodedMove.NONE;
+        for (int i = 0; i < legalMoves.size(); i++) {
+            int move = legalMoves.get(i);
+            int from = EncodedMove.getFrom(move);
+            if (EncodedMove.getTo(move) == to && EncodedMove.getMoving(move) == moving
+                    && EncodedMove.getPromotion(move) == promotion && !EncodedMove.isCastling(move)
+                    && (fromFile == -1 || (from & 7) == fromFile) && (fromRank == -1 || (from >>> 3) == fromRank)) {
+                if (res != EncodedMove.NONE) {
+                    // ambiguous
+                    return EncodedMove.NONE;
+                }
+                res = move;
+            }
         }
-        if (castlingRights.isEmpty()) {
-            castlingRights += "-";
+        return res;
+    }
+
+    /**
+     * Turn SAN into the form with a Unicode symbol for the moving piece
+     * @param san SAN of a move
+     * @return The same move with e.g. ♘f3 for Nf3, pawn moves and castling are unchanged
+     */
+    public static String sanToUnicode(String san) {
+        if (san.isEmpty() || "KQRBN".indexOf(san.charAt(0)) == -1) {
+            return san;
         }
+        return getUnicodePieceSymbolFromType(getPieceTypeFromLetter(san.charAt(0))) + san.substring(1);
+    }
 
+    // FEN of the game's position, the game keeps it until the position changes
+    public static String gameToFEN(Game game) {
+        return game.getFEN();
+    }
+
+    // append the FEN of the game's position to a builder, nothing else is allocated
+    public static void appendFEN(Game game, StringBuilder out) {
+        MoveHistory history = game.getHistory();
+        int fullMoves = (history.getStartingPly() + history.getSize()) / 2 + 1;
+        appendFEN(game.getBoard(), game.getCurrentTurn(), game.getCastlingRights(), game.getEnPassantSquare(),
+                game.getHalfMoves(), fullMoves, out);
+    }
+
+    /**
+     * Append the FEN of a position to a builder, nothing else is allocated
+     * @param board Board with the pieces
+     * @param turn Side to move
+     * @param castlingRights Bitmask of Zobrist.CASTLING_* flags
+     * @param enPassantSquare Bitboard index of the en passant target, -1 if there is none
+     * @param halfMoves Halfmove clock
+     * @param fullMoves Fullmove number
+     * @param out Builder to append to
+     */
+    public static void appendFEN(Board board, PieceColor turn, int castlingRights, int enPassantSquare,
+                                 int halfMoves, int fullMoves, StringBuilder out) {
         // piece placement
-        String placement = "";
         for (int i = 0; i < 8; i++) {
             int emptySquares = 0;
             for (int j = 0; j < 8; j++) {
-                Square square = board.getSquare(i, j);
-                if (square.isEmpty()) {
+                Piece piece = board.getSquare(i, j).getPiece();
+                if (piece == null) {
                     emptySquares++;
                 } else {
                     if (emptySquares != 0) {
-                        placement += emptySquares;
+                        out.append((char) ('0' + emptySquares));
                         emptySquares = 0;
                     }
-                    placement += getPieceLetterFromPiece(square.getPiece());
+                    out.append(getPieceLetterFromPiece(piece));
                 }
             }
             if (emptySquares != 0) {
-                placement += emptySquares;
+                out.append((char) ('0' + emptySquares));
             }
-            if (i != 7 ) {
-                placement += '/';
+            if (i != 7) {
+                out.append('/');
             }
         }
 
+        // turn
+        out.append(' ').append((turn == PieceColor.WHITE) ? 'w' : 'b').append(' ');
+
+        // castling rights
+        if (castlingRights == 0) {
+            out.append('-');
+        } else {
+            if ((castlingRights & Zobrist.CASTLING_WHITE_KINGSIDE) != 0) {
+                out.append('K');
+            }
+            if ((castlingRights & Zobrist.CASTLING_WHITE_QUEENSIDE) != 0) {
+                out.append('Q');
+            }
+            if ((castlingRights & Zobrist.CASTLING_BLACK_KINGSIDE) != 0) {
+                out.append('k');
+            }
+            if ((castlingRights & Zobrist.CASTLING_BLACK_QUEENSIDE) != 0) {
+                out.append('q');
+            }
+        }
+
+        // possible en passant target
+        out.append(' ');
+        if (enPassantSquare == -1) {
+            out.append('-');
+        } else {
+            out.append((char) ('a' + (enPassantSquare & 7))).append((char) ('1' + (7 - (enPassantSquare >>> 3))));
+        }
+
         // halfmove and fullmove count
-        int halfMoves = game.getHalfMoves();
-        int fullMoves = game.getHistory().getSize() / 2 + 1;
-        res += placement + ' ' + turn + ' ' + castlingRights + ' '
-            + possibleEnPassantTarget + ' ' + halfMoves + ' ' + fullMoves;
-        return res;
+        out.append(' ').append(halfMoves).append(' ').append(fullMoves);
     }
 
     public static Move stockfishOutputToMove(Board board, String moveString) {
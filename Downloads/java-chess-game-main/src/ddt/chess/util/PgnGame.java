@@ -0,0 +1,233 @@
+package ddt.chess.util;
+
+import ddt.chess.core.Board;
+import ddt.chess.core.EncodedMove;
+import ddt.chess.core.Game;
+import ddt.chess.core.Move;
+import ddt.chess.core.MoveHistory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// one game of a PGN file: the tag pairs and the movetext with its comments, NAGs and variations
+// moves are kept as SAN, they are only checked against a board when the game is replayed
+public class PgnGame {
+    // the tags every PGN game has, written first and in this order
+    public static final String[] SEVEN_TAG_ROSTER = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
+
+    private final Map<String, String> tags = new LinkedHashMap<>();
+    private final List<Node> moves = new ArrayList<>();
+    private String comment; // before the first move, null if there is none
+    private String result = "*";
+
+    // one move of the movetext
+    public static class Node {
+        private final String san;
+        private List<Integer> nags = Collections.emptyList();
+        private String comment; // after the move
+        private String startingComment; // before the move, only read for the first move of a variation
+        private List<List<Node>> variations = Collections.emptyList(); // alternatives to this move
+
+        public Node(String san) {
+            this.san = san;
+        }
+
+        // as written in the file, check marks included
+        public String getSan() {
+            return san;
+        }
+
+        // numeric annotation glyphs, $1 for "!", $2 for "?" etc.
+        public List<Integer> getNags() {
+            return nags;
+        }
+
+        public void addNag(int nag) {
+            if (nags.isEmpty()) {
+                nags = new ArrayList<>(2);
+            }
+            nags.add(nag);
+        }
+
+        public String getComment() {
+            return comment;
+        }
+
+        // a second comment is added to the first one
+        public void addComment(String comment) {
+            this.comment = (this.comment == null) ? comment : this.comment + ' ' + comment;
+        }
+
+        public String getStartingComment() {
+            return startingComment;
+        }
+
+        public void setStartingComment(String startingComment) {
+            this.startingComment = startingComment;
+        }
+
+        public List<List<Node>> getVariations() {
+            return variations;
+        }
+
+        // a new variation that replaces this move, its moves are added to the returned list
+        public List<Node> addVariation() {
+            if (variations.isEmpty()) {
+                variations = new ArrayList<>(1);
+            }
+            List<Node> res = new ArrayList<>();
+            variations.add(res);
+            return res;
+        }
+    }
+
+    // tag value, null if the game has no such tag
+    public String getTag(String name) {
+        return tags.get(name);
+    }
+
+    public void setTag(String name, String value) {
+        tags.put(name, value);
+    }
+
+    // tags in the order they were read or set
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    // the main line
+    public List<Node> getMoves() {
+        return moves;
+    }
+
+    // the main line as SAN
+    public List<String> getMainline() {
+        List<String> res = new ArrayList<>(moves.size());
+        for (Node node : moves) {
+            res.add(node.san);
+        }
+        return res;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public void setComment(String comment) {
+        this.comment = comment;
+    }
+
+    // "1-0", "0-1", "1/2-1/2" or "*" if the game is unfinished or the result is unknown
+    public String getResult() {
+        return result;
+    }
+
+    public void setResult(String result) {
+        this.result = result;
+    }
+
+    // the FEN tag, null if the game starts from the starting position
+    public String getStartingFEN() {
+        return tags.get("FEN");
+    }
+
+    /**
+     * Play the main line in a new game
+     * @return The game after the last move
+     * @throws IllegalArgumentException If the FEN tag is malformed or a move is not legal in its position
+     */
+    public Game toGame() {
+        Game res = new Game();
+        replay(res);
+        return res;
+    }
+
+    /**
+     * Play the main line in a game, it is reset to the starting position of this game first
+     * @param game Game to play the moves in
+     * @throws IllegalArgumentException If the FEN tag is malformed or a move is not legal in its position
+     */
+    public void replay(Game game) {
+        replay(game, null);
+    }
+
+    /**
+     * Play the main line in a game, it is reset to the starting position of this game first
+     * @param game Game to play the moves in
+     * @param positionListener Called with the game in the starting position and after every move, may be null
+     * @throws IllegalArgumentException If the FEN tag is malformed or a move is not legal in its position,
+     *                                  the game is left after the last legal move
+     */
+    public void replay(Game game, Consumer<Game> positionListener) {
+        String fen = getStartingFEN();
+        if (fen != null) {
+            game.loadFEN(fen);
+        } else {
+            game.resetBoard();
+        }
+        if (positionListener != null) {
+            positionListener.accept(game);
+        }
+        for (int i = 0; i < moves.size(); i++) {
+            String san = moves.get(i).san;
+            Board board = game.getBoard();
+            // the game keeps the legal moves it looks the move up in again
+            int move = Notation.parseSAN(san, game.getLegalMoves());
+            if (move == EncodedMove.NONE || !game.makeMove(new Move(board.getSquare(EncodedMove.getFrom(move)),
+                    board.getSquare(EncodedMove.getTo(move))), EncodedMove.getPromotion(move))) {
+                throw new IllegalArgumentException("Illegal move " + san + " at ply " + (i + 1));
+            }
+            if (positionListener != null) {
+                positionListener.accept(game);
+            }
+        }
+    }
+
+    /**
+     * Export the moves of a game, with check marks, and the tags every PGN game needs
+     * The result is taken from the game if isOver() has found it over
+     * @param game The game
+     * @return PGN game with the seven tag roster set to unknown values, to be filled in by the caller
+     */
+    public static PgnGame fromGame(Game game) {
+        PgnGame res = new PgnGame();
+        for (String name : SEVEN_TAG_ROSTER) {
+            res.setTag(name, "?");
+        }
+        res.setTag("Date", "????.??.??");
+        String winner = game.getWinner();
+        if (winner != null) {
+            res.result = switch (winner) {
+                case "white" -> "1-0";
+                case "black" -> "0-1";
+                default -> "1/2-1/2";
+            };
+        }
+        res.setTag("Result", res.result);
+        String fen = game.getStartingFEN();
+        if (fen != null) {
+            res.setTag("SetUp", "1");
+            res.setTag("FEN", fen);
+        }
+        // the moves are played again to find out which of them give check
+        Game replay = (fen == null) ? new Game() : Game.fromFEN(fen);
+        MoveHistory history = game.getHistory();
+        for (int i = 0; i < history.getSize(); i++) {
+            int move = history.getNotationMove(i);
+            Board board = replay.getBoard();
+            replay.makeMove(new Move(board.getSquare(EncodedMove.getFrom(move)), board.getSquare(EncodedMove.getTo(move))),
+                    EncodedMove.getPromotion(move));
+            String san = history.getSAN(i);
+            if (board.isCheck(replay.getCurrentTurn())) {
+                boolean mate = replay.getLegalMoves().isEmpty();
+                san += mate ? '#' : '+';
+            }
+            res.moves.add(new Node(san));
+        }
+        return res;
+    }
+}
@@ -0,0 +1,292 @@
+package ddt.chess.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+// reads the games of a PGN file one at a time, so only the game being read is kept in memory
+// the reader is lenient like most PGN software: characters that mean nothing in PGN are skipped,
+// and a game without a result ends where the tags of the next game start
+public class PgnReader implements Closeable {
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int position = 0;
+    private int limit = 0;
+    private boolean lineStart = true; // the next character is the first of a line
+    private long gamesRead = 0;
+
+    private final StringBuilder token = new StringBuilder(64);
+
+    /**
+     * Create a reader, it reads in blocks so the reader does not have to be buffered
+     * @param in Reader of the PGN text, closed with this reader
+     */
+    public PgnReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Read the next game
+     * @return The game, or null at the end of the input
+     * @throws IOException If the input cannot be read
+     */
+    public PgnGame next() throws IOException {
+        PgnGame game = new PgnGame();
+        boolean empty = true;
+        boolean inMovetext = false;
+        // the line moves are added to, with the lines it branched from below it
+        List<PgnGame.Node> line = game.getMoves();
+        Deque<List<PgnGame.Node>> parentLines = new ArrayDeque<>();
+        String startingComment = null; // a comment before the first move of a variation
+        int c;
+        while ((c = peek()) != -1) {
+            if (c == '%' && lineStart) {
+                // escaped line, for software specific data
+                skipLine();
+                continue;
+            }
+            if (c == '[') {
+                if (inMovetext) {
+                    // the next game starts, this one had no result
+                    break;
+                }
+                read();
+                readTag(game);
+                empty = false;
+                continue;
+            }
+            read();
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '.') {
+                continue;
+            }
+            inMovetext = true;
+            empty = false;
+            PgnGame.Node last = line.isEmpty() ? null : line.getLast();
+            if (c == '{' || c == ';') {
+                String comment = (c == '{') ? readUntil('}') : readUntil('\n');
+                if (last != null) {
+                    last.addComment(comment);
+                } else if (parentLines.isEmpty()) {
+                    game.setComment((game.getComment() == null) ? comment : game.getComment() + ' ' + comment);
+                } else {
+                    startingComment = comment;
+                }
+            } else if (c == '(') {
+                parentLines.push(line);
+                // a variation before any move has nothing to replace, it is read and dropped
+                line = (last != null) ? last.addVariation() : new ArrayList<>();
+                startingComment = null;
+            } else if (c == ')') {
+                if (!parentLines.isEmpty()) {
+                    line = parentLines.pop();
+                }
+            } else if (c == '$') {
+                int nag = readNumber();
+                if (last != null) {
+                    last.addNag(nag);
+                }
+            } else if (c == '!' || c == '?') {
+                int nag = readSuffixAnnotation(c);
+                if (last != null && nag != 0) {
+                    last.addNag(nag);
+                }
+            } else if (c == '*') {
+                if (parentLines.isEmpty()) {
+                    game.setResult("*");
+                    break;
+                }
+            } else if (isSymbolStart(c)) {
+                String symbol = readSymbol(c);
+                if (isResult(symbol)) {
+                    if (parentLines.isEmpty()) {
+                        game.setResult(symbol);
+                        break;
+                    }
+                } else if (!isMoveNumber(symbol)) {
+                    PgnGame.Node node = new PgnGame.Node(symbol);
+                    if (startingComment != null) {
+                        node.setStartingComment(startingComment);
+                        startingComment = null;
+                    }
+                    line.add(node);
+                    // "e4!?" has its annotation in the same symbol
+                    while ((c = peek()) == '!' || c == '?') {
+                        read();
+                        int nag = readSuffixAnnotation(c);
+                        if (nag != 0) {
+                            node.addNag(nag);
+                        }
+                    }
+                }
+            }
+        }
+        if (empty) {
+            return null;
+        }
+        if (game.getTag("Result") != null && game.getResult().equals("*") && !inMovetext) {
+            game.setResult(game.getTag("Result"));
+        }
+        gamesRead++;
+        return game;
+    }
+
+    // games returned by next so far
+    public long getGamesRead() {
+        return gamesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // [Name "value"], the '[' is already read
+    private void readTag(PgnGame game) throws IOException {
+        skipSpaces();
+        token.setLength(0);
+        int c;
+        while ((c = peek()) != -1 && c != ' ' && c != '\t' && c != '"' && c != ']') {
+            token.append((char) read());
+        }
+        String name = token.toString();
+        skipSpaces();
+        token.setLength(0);
+        if (peek() == '"') {
+            read();
+            while ((c = read()) != -1 && c != '"' && c != '\n') {
+                if (c == '\\') {
+                    // \" and \\ are the only escapes
+                    c = read();
+                    if (c == -1) {
+                        break;
+                    }
+                }
+                token.append((char) c);
+            }
+        }
+        // the rest of the tag, usually just the ']'
+        while ((c = peek()) != -1 && c != '\n' && c != '[') {
+            read();
+            if (c == ']') {
+                break;
+            }
+        }
+        if (!name.isEmpty()) {
+            game.setTag(name, token.toString());
+        }
+    }
+
+    private String readUntil(char end) throws IOException {
+        token.setLength(0);
+        int c;
+        while ((c = read()) != -1 && c != end) {
+            token.append((char) c);
+        }
+        // comments are free text, line breaks in them are only formatting
+        for (int i = 0; i < token.length(); i++) {
+            char ch = token.charAt(i);
+            if (ch == '\n' || ch == '\r' || ch == '\t') {
+                token.setCharAt(i, ' ');
+            }
+        }
+        return token.toString().trim();
+    }
+
+    private String readSymbol(int first) throws IOException {
+        token.setLength(0);
+        token.append((char) first);
+        int c;
+        while ((c = peek()) != -1 && isSymbolPart(c)) {
+            token.append((char) read());
+        }
+        return token.toString();
+    }
+
+    private int readNumber() throws IOException {
+        int res = 0;
+        int c;
+        while ((c = peek()) >= '0' && c <= '9') {
+            res = res * 10 + (read() - '0');
+        }
+        return res;
+    }
+
+    // "!", "?", "!!", "??", "!?" and "?!" as NAGs 1 to 6, the first character is already read
+    private int readSuffixAnnotation(int first) throws IOException {
+        int second = peek();
+        if (second != '!' && second != '?') {
+            return (first == '!') ? 1 : 2;
+        }
+        read();
+        if (first == second) {
+            return (first == '!') ? 3 : 4;
+        }
+        return (first == '!') ? 5 : 6;
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        while ((c = read()) != -1 && c != '\n') {
+            // skipped
+        }
+    }
+
+    private void skipSpaces() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\t') {
+            read();
+        }
+    }
+
+    private static boolean isSymbolStart(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isSymbolPart(int c) {
+        return isSymbolStart(c) || c == '_' || c == '+' || c == '#' || c == '=' || c == ':' || c == '-' || c == '/';
+    }
+
+    private static boolean isResult(String symbol) {
+        return symbol.equals("1-0") || symbol.equals("0-1") || symbol.equals("1/2-1/2");
+    }
+
+    private static boolean isMoveNumber(String symbol) {
+        for (int i = 0; i < symbol.length(); i++) {
+            char c = symbol.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        char c = buffer[position++];
+        lineStart = c == '\n';
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        int count = in.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package ddt.chess.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+// writes games in the PGN export format: the seven tag roster first, movetext lines of at most 79 characters
+public class PgnWriter implements Closeable, Flushable {
+    private static final int MAX_LINE_LENGTH = 79;
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(MAX_LINE_LENGTH + 1);
+
+    /**
+     * Create a writer
+     * @param out Writer of the PGN text, closed with this writer, it should be buffered
+     */
+    public PgnWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Write a game followed by an empty line
+     * @param game The game
+     * @throws IOException If the output cannot be written
+     */
+    public void write(PgnGame game) throws IOException {
+        Map<String, String> tags = game.getTags();
+        for (String name : PgnGame.SEVEN_TAG_ROSTER) {
+            String value = tags.get(name);
+            if (value == null) {
+                value = name.equals("Result") ? game.getResult() : "?";
+            }
+            writeTag(name, value);
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!isInSevenTagRoster(tag.getKey())) {
+                writeTag(tag.getKey(), tag.getValue());
+            }
+        }
+        out.write('\n');
+
+        line.setLength(0);
+        if (game.getComment() != null) {
+            appendComment(game.getComment());
+        }
+        writeLine(game.getMoves(), startingPly(game.getStartingFEN()), true);
+        append(game.getResult());
+        out.write(line.toString());
+        out.write("\n\n");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeTag(String name, String value) throws IOException {
+        out.write('[');
+        out.write(name);
+        out.write(" \"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+            }
+            out.write(c);
+        }
+        out.write("\"]\n");
+    }
+
+    // a line of moves starting at a ply, the number is written before a black move only where it is needed
+    private void writeLine(List<PgnGame.Node> moves, int ply, boolean numberBlackMove) throws IOException {
+        for (PgnGame.Node node : moves) {
+            if (node.getStartingComment() != null) {
+                appendComment(node.getStartingComment());
+            }
+            // the move number stays on the line of its move
+            if (ply % 2 == 0) {
+                append((ply / 2 + 1) + ". " + node.getSan());
+            } else if (numberBlackMove) {
+                append((ply / 2 + 1) + "... " + node.getSan());
+            } else {
+                append(node.getSan());
+            }
+            for (int nag : node.getNags()) {
+                append("$" + nag);
+            }
+            // after a comment or a variation the move number of a black move is repeated
+            numberBlackMove = false;
+            if (node.getComment() != null) {
+                appendComment(node.getComment());
+                numberBlackMove = true;
+            }
+            for (List<PgnGame.Node> variation : node.getVariations()) {
+                append("(");
+                writeLine(variation, ply, true);
+                // no space before the closing parenthesis
+                if (line.charAt(line.length() - 1) == ' ') {
+                    line.setLength(line.length() - 1);
+                }
+                line.append(')');
+                numberBlackMove = true;
+            }
+            ply++;
+        }
+    }
+
+    // a comment cannot contain '}', PGN has no escape for it
+    private void appendComment(String comment) throws IOException {
+        append("{" + comment.replace('}', ')') + "}");
+    }
+
+    // adds a token to the current line, the line is written out when the token does not fit on it
+    private void append(String token) throws IOException {
+        boolean opening = line.length() > 0 && line.charAt(line.length() - 1) == '(';
+        if (line.length() > 0 && line.length() + 1 + token.length() > MAX_LINE_LENGTH) {
+            out.write(line.toString());
+            out.write('\n');
+            line.setLength(0);
+        }
+        if (line.length() > 0 && !opening) {
+            line.append(' ');
+        }
+        line.append(token);
+    }
+
+    private static boolean isInSevenTagRoster(String name) {
+        for (String tag : PgnGame.SEVEN_TAG_ROSTER) {
+            if (tag.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // plies played before the position of a FEN, 0 for the starting position
+    private static int startingPly(String fen) {
+        if (fen == null) {
+            return 0;
+        }
+        String[] fields = fen.trim().split("\\s+");
+        boolean blackToMove = fields.length > 1 && fields[1].equals("b");
+        int fullMoves = 1;
+        if (fields.length > 5) {
+            try {
+                fullMoves = Math.max(1, Integer.parseInt(fields[5]));
+            } catch (NumberFormatException e) {
+                // the move numbers start at 1
+            }
+        }
+        return (fullMoves - 1) * 2 + (blackToMove ? 1 : 0);
+    }
+}
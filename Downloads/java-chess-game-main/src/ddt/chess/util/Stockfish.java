@@ -1,19 +1,49 @@
 package ddt.chess.util;
 
+import ddt.chess.core.Board;
+import ddt.chess.core.FenParser;
+import ddt.chess.core.Zobrist;
+
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 public class Stockfish {
+    private static final long READY_TIMEOUT = 5000; // Time to wait for uciok / readyok in milliseconds
+    private static final long BEST_MOVE_GRACE = 1000; // Extra time for a best move after the thinking time
+
     private Process engineProcess;
     private BufferedReader processReader;
     private BufferedWriter processWriter;
-    private boolean isUCIReady = false;
-    private Map<String, String> positionCache = new HashMap<>();
+    private volatile boolean isUCIReady = false;
+    private AnalysisCache analysisCache = new AnalysisCache(); // Results of getBestMove, may be shared with other engines
     private boolean useHash = true;
+    // reads the FEN of a search for its cache key, only used by the thread driving the engine
+    private final FenParser fenParser = new FenParser();
+    private final Board keyBoard = new Board();
     private int hashSizeMB = 1024; // Default hash size
     private int threads = Runtime.getRuntime().availableProcessors(); // Use all available cores by default
+    private int elo = -1; // -1 while strength is not limited
+    private boolean ponder = false; // Ponder option, the engine plans its time for thinking on the opponent's time
+    private volatile String ponderMove; // Reply the engine expects to its last best move
+
+    // Engine output is read by one thread, which completes these futures
+    private CompletableFuture<Void> uciOk;
+    private final Queue<CompletableFuture<Void>> pendingReady = new ConcurrentLinkedQueue<>();
+    private final Object searchLock = new Object();
+    private CompletableFuture<UciEvent> pendingBestMove; // guarded by searchLock
+    private int ignoredBestMoves = 0; // bestmove lines of abandoned searches, guarded by searchLock
+    private final StringBuilder searchOutput = new StringBuilder(); // output of the current search, guarded by searchLock
+    private AnalysisResult searchResult; // parsed output of the current search, guarded by searchLock
+    private int multiPV = 1; // Number of principal variations the engine reports
+    private final List<Consumer<UciEvent>> listeners = new CopyOnWriteArrayList<>();
 
     /**
      * Starts the Stockfish engine process
@@ -26,8 +56,13 @@ public class Stockfish {
             processReader = new BufferedReader(new InputStreamReader(engineProcess.getInputStream()));
             processWriter = new BufferedWriter(new OutputStreamWriter(engineProcess.getOutputStream()));
 
+            uciOk = new CompletableFuture<>();
+            Thread readerThread = new Thread(this::readOutput, "stockfish-reader");
+            readerThread.setDaemon(true);
+            readerThread.start();
+
             // Initialize engine with UCI protocol
-            isUCIReady = sendCommand("uci") && waitFor("uciok");
+            isUCIReady = sendCommand("uci") && await(uciOk, READY_TIMEOUT);
 
             // Apply performance optimizations
             if (isUCIReady) {
@@ -56,22 +91,25 @@ public class Stockfish {
         // Enable or disable Syzygy tablebases if available
         // sendCommand("setoption name SyzygyPath value path/to/tablebases");
 
-        // Turn off Ponder (thinking on opponent's time)
-        sendCommand("setoption name Ponder value false");
+        // Ponder (thinking on opponent's time) is off unless setPonder turns it on
+        sendCommand("setoption name Ponder value " + ponder);
 
         // Initialize the engine
-        sendCommand("isready");
-        waitFor("readyok");
+        waitForReady();
     }
 
     /**
      * Stops the engine process
      */
     public void stopEngine() {
+        if (engineProcess == null) {
+            return;
+        }
+        isUCIReady = false;
         try {
             sendCommand("quit");
-            processReader.close();
             processWriter.close();
+            // The reader thread closes the output stream when the process has exited
             if (engineProcess.isAlive()) {
                 engineProcess.waitFor(1, TimeUnit.SECONDS);
                 if (engineProcess.isAlive()) {
@@ -83,12 +121,28 @@ public class Stockfish {
         }
     }
 
+    /**
+     * Check if the engine process is running and answered the UCI handshake
+     * @return True if the engine can be used
+     */
+    public boolean isAlive() {
+        return isUCIReady && engineProcess != null && engineProcess.isAlive();
+    }
+
+    /**
+     * Tell the engine the next position is from another game
+     * @return True if the engine acknowledged it, false if it died or did not answer
+     */
+    public boolean newGame() {
+        return sendCommand("ucinewgame") && waitForReady();
+    }
+
     /**
      * Send a command to the engine
      * @param command Command string
      * @return True if command was sent successfully
      */
-    public boolean sendCommand(String command) {
+    public synchronized boolean sendCommand(String command) {
         try {
             processWriter.write(command + "\n");
             processWriter.flush();
@@ -100,62 +154,242 @@ public class Stockfish {
     }
 
     /**
-     * Get output from the engine with timeout
-     * @param waitTime Time to wait in milliseconds
-     * @return Output from engine
+     * Listen to every line of engine output, listeners are called on the reader thread
+     * @param listener Listener to add
      */
-    public String getOutput(long waitTime) {
-        StringBuilder sb = new StringBuilder();
+    public void addListener(Consumer<UciEvent> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop listening to engine output
+     * @param listener Listener to remove
+     */
+    public void removeListener(Consumer<UciEvent> listener) {
+        listeners.remove(listener);
+    }
+
+    // Runs on the reader thread until the process closes its output
+    private void readOutput() {
         try {
-            // Wait for initial time
-            Thread.sleep(Math.min(waitTime, 100));
-
-            // Start time measurement
-            long startTime = System.currentTimeMillis();
-            long endTime = startTime + waitTime;
-
-            // Keep reading until timeout or no more data
-            while (System.currentTimeMillis() < endTime) {
-                if (processReader.ready()) {
-                    String line = processReader.readLine();
-                    if (line != null) {
-                        sb.append(line).append("\n");
-
-                        // If we found the bestmove, we can exit early
-                        if (line.startsWith("bestmove")) {
-                            break;
+            String line;
+            while ((line = processReader.readLine()) != null) {
+                handleEvent(UciEvent.parse(line));
+            }
+        } catch (IOException e) {
+            // The stream was closed, the engine is gone either way
+        } finally {
+            isUCIReady = false;
+            IOException ended = new IOException("Stockfish process ended");
+            uciOk.completeExceptionally(ended);
+            CompletableFuture<Void> ready;
+            while ((ready = pendingReady.poll()) != null) {
+                ready.completeExceptionally(ended);
+            }
+            synchronized (searchLock) {
+                if (pendingBestMove != null) {
+                    pendingBestMove.completeExceptionally(ended);
+                    pendingBestMove = null;
+                }
+            }
+            try {
+                processReader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void handleEvent(UciEvent event) {
+        switch (event.getType()) {
+            case UCIOK -> uciOk.complete(null);
+            case READYOK -> {
+                // Every isready gets exactly one readyok, in order
+                CompletableFuture<Void> ready = pendingReady.poll();
+                if (ready != null) {
+                    ready.complete(null);
+                }
+            }
+            case INFO, BESTMOVE -> {
+                synchronized (searchLock) {
+                    if (ignoredBestMoves > 0) {
+                        // Output of a search that was given up on, it ends with its bestmove
+                        if (event.getType() == UciEvent.Type.BESTMOVE) {
+                            ignoredBestMoves--;
                         }
+                        return;
+                    }
+                    searchOutput.append(event.getLine()).append("\n");
+                    if (searchResult != null) {
+                        if (event.getType() == UciEvent.Type.INFO) {
+                            searchResult.addInfo(event.getLine());
+                        } else {
+                            searchResult.setBestMove(event);
+                        }
+                    }
+                    if (event.getType() == UciEvent.Type.BESTMOVE && pendingBestMove != null) {
+                        ponderMove = event.getPonderMove();
+                        pendingBestMove.complete(event);
+                        pendingBestMove = null;
                     }
-                } else {
-                    // Small sleep to prevent CPU spinning
-                    Thread.sleep(5);
                 }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            default -> {
+            }
+        }
+        for (Consumer<UciEvent> listener : listeners) {
+            listener.accept(event);
         }
-        return sb.toString();
     }
 
     /**
-     * Wait for a specific keyword in the engine output
-     * @param keyword Keyword to wait for
-     * @return True if keyword was found
+     * Send isready and wait for readyok
+     * @return True if the engine answered in time
      */
-    private boolean waitFor(String keyword) {
+    private boolean waitForReady() {
+        CompletableFuture<Void> ready = new CompletableFuture<>();
+        pendingReady.add(ready);
+        if (!sendCommand("isready")) {
+            pendingReady.remove(ready);
+            return false;
+        }
+        return await(ready, READY_TIMEOUT);
+    }
+
+    // An engine that does not answer in time is not used again, see isAlive
+    private boolean await(CompletableFuture<?> future, long timeoutMillis) {
         try {
-            String text;
-            while ((text = processReader.readLine()) != null) {
-                if (text.contains(keyword)) {
-                    return true;
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+            future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            System.out.println("Stockfish did not answer within " + timeoutMillis + " ms.");
+            isUCIReady = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The process ended
         }
         return false;
     }
 
+    /**
+     * Start a search without waiting for it
+     * @param fen FEN position string
+     * @param goCommand The go command, e.g. "go movetime 1000"
+     * @return Future completed with the bestmove event when the engine has finished
+     */
+    public CompletableFuture<UciEvent> startSearch(String fen, String goCommand) {
+        CompletableFuture<UciEvent> bestMove = new CompletableFuture<>();
+        synchronized (searchLock) {
+            searchOutput.setLength(0);
+            searchResult = new AnalysisResult(multiPV);
+            pendingBestMove = bestMove;
+        }
+        if (!sendCommand("position fen " + fen) || !sendCommand(goCommand)) {
+            synchronized (searchLock) {
+                pendingBestMove = null;
+            }
+            bestMove.completeExceptionally(new IOException("Could not send the search to Stockfish"));
+        }
+        return bestMove;
+    }
+
+    /**
+     * Start thinking on the opponent's time, in the position after the expected reply
+     * Follow with ponderHit if the opponent plays it, or cancelSearch if not
+     * @param fen FEN position string, the opponent is to move
+     * @param expectedReply Opponent's move the engine expects, in UCI format
+     * @param goParameters Time control of the search, e.g. "movetime 1000"
+     * @return Future completed with the bestmove event after ponderHit
+     */
+    public CompletableFuture<UciEvent> startPonder(String fen, String expectedReply, String goParameters) {
+        return startSearch(fen + " moves " + expectedReply, "go ponder " + goParameters);
+    }
+
+    /**
+     * The opponent played the expected reply, the ponder search goes on as a normal search
+     */
+    public void ponderHit() {
+        sendCommand("ponderhit");
+    }
+
+    /**
+     * Stop the current search, its future gets the best move found so far
+     */
+    public void stopSearch() {
+        sendCommand("stop");
+    }
+
+    /**
+     * Give up a search, it is stopped and its best move is thrown away
+     * @param bestMove Future returned by startSearch or startPonder
+     */
+    public void cancelSearch(CompletableFuture<UciEvent> bestMove) {
+        abandonSearch(bestMove);
+    }
+
+    /**
+     * Wait for a search, stopping it if it takes too long
+     * @param bestMove Future returned by startSearch or startPonder
+     * @param timeoutMillis Time to wait before the search is stopped
+     * @return The bestmove event, or null if the engine did not answer
+     */
+    public UciEvent awaitBestMove(CompletableFuture<UciEvent> bestMove, long timeoutMillis) {
+        try {
+            try {
+                return bestMove.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Force the engine to move
+                stopSearch();
+                return bestMove.get(BEST_MOVE_GRACE, TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            System.out.println("Stockfish did not send a best move.");
+            isUCIReady = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandonSearch(bestMove);
+        } catch (ExecutionException e) {
+            // The process ended
+        }
+        return null;
+    }
+
+    // Stop a search nobody waits for anymore, its bestmove must not complete the next search
+    private void abandonSearch(CompletableFuture<UciEvent> bestMove) {
+        synchronized (searchLock) {
+            if (pendingBestMove == bestMove) {
+                pendingBestMove = null;
+                ignoredBestMoves++;
+                stopSearch();
+            }
+        }
+    }
+
+    /**
+     * Get output of the current search, waiting until it has finished
+     * @param waitTime Time to wait in milliseconds
+     * @return Output from engine since the search was started
+     */
+    public String getOutput(long waitTime) {
+        CompletableFuture<UciEvent> bestMove;
+        synchronized (searchLock) {
+            bestMove = pendingBestMove;
+        }
+        if (bestMove != null) {
+            try {
+                bestMove.get(waitTime, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // Return what is there
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (searchLock) {
+            return searchOutput.toString();
+        }
+    }
+
     /**
      * Get the best move for a position with fixed thinking time
      * @param fen FEN position string
@@ -163,34 +397,71 @@ public class Stockfish {
      * @return Best move in UCI format
      */
     public String getBestMove(String fen, int waitTime) {
+        AnalysisResult analysis = analyze(fen, waitTime);
+        return (analysis == null) ? null : analysis.getBestMove();
+    }
+
+    /**
+     * Analyse a position with fixed thinking time, results are cached like those of getBestMove
+     * @param fen FEN position string
+     * @param waitTime Thinking time in milliseconds
+     * @return Best move, score and principal variation, or null if the engine has no move or did not answer
+     */
+    public AnalysisResult analyze(String fen, int waitTime) {
+        return analyze(fen, waitTime, 1);
+    }
+
+    /**
+     * Analyse a position with fixed thinking time, reporting several principal variations
+     * @param fen FEN position string
+     * @param waitTime Thinking time in milliseconds
+     * @param multiPV Number of principal variations, the best moves of the position each get one
+     * @return Best move and the principal variations, or null if the engine has no move or did not answer
+     */
+    public AnalysisResult analyze(String fen, int waitTime, int multiPV) {
         // Check cache first
-        if (useHash && positionCache.containsKey(fen + waitTime)) {
-            return positionCache.get(fen + waitTime);
+        String searchLimit = "movetime " + waitTime;
+        boolean cached = useHash;
+        long key = 0;
+        if (cached) {
+            try {
+                fenParser.parse(fen, keyBoard);
+                long positionKey = Zobrist.positionKey(keyBoard, fenParser.getTurn(), fenParser.getEnPassantSquare());
+                key = AnalysisCache.key(positionKey, waitTime, multiPV, elo);
+            } catch (IllegalArgumentException e) {
+                // leave malformed positions to the engine, without caching what it answers
+                cached = false;
+            }
+        }
+        if (cached) {
+            AnalysisResult hit = analysisCache.get(key);
+            if (hit != null) {
+                ponderMove = hit.getPonderMove();
+                return hit;
+            }
         }
 
         // Make sure engine is ready
-        sendCommand("isready");
-        waitFor("readyok");
-
-        // Set position and start calculation
-        sendCommand("position fen " + fen);
-        sendCommand("go movetime " + waitTime);
-
-        // Get output and parse for best move
-        String output = getOutput(waitTime + 100);
-        for (String line : output.split("\n")) {
-            if (line.startsWith("bestmove")) {
-                String bestMove = line.split(" ")[1];
-
-                // Cache the result
-                if (useHash) {
-                    positionCache.put(fen + waitTime, bestMove);
-                }
+        setMultiPV(multiPV);
+        waitForReady();
+
+        // Set position and start calculation, the info lines are parsed as they arrive
+        CompletableFuture<UciEvent> bestMove = startSearch(fen, "go " + searchLimit);
+        AnalysisResult analysis;
+        synchronized (searchLock) {
+            analysis = searchResult;
+        }
+        UciEvent event = awaitBestMove(bestMove, waitTime + BEST_MOVE_GRACE);
+        if (event == null || event.getBestMove() == null) {
+            return null;
+        }
 
-                return bestMove;
-            }
+        // Cache the result with its score and principal variation
+        if (cached) {
+            analysisCache.put(key, analysis);
         }
-        return null;
+
+        return analysis;
     }
 
     /**
@@ -201,15 +472,15 @@ public class Stockfish {
      */
     public String getBestMoveWithInfo(String fen, int waitTime) {
         // Make sure engine is ready
-        sendCommand("isready");
-        waitFor("readyok");
+        waitForReady();
 
         // Set position and start calculation
-        sendCommand("position fen " + fen);
-        sendCommand("go movetime " + waitTime);
+        awaitBestMove(startSearch(fen, "go movetime " + waitTime), waitTime + BEST_MOVE_GRACE);
 
         // Get full output
-        return getOutput(waitTime + 100);
+        synchronized (searchLock) {
+            return searchOutput.toString();
+        }
     }
 
     /**
@@ -222,22 +493,53 @@ public class Stockfish {
             System.out.println("Elo must be between 1350 and 2850.");
             return false;
         }
+        if (elo == this.elo) {
+            return true;
+        }
 
         // Make sure engine is ready
-        sendCommand("isready");
-        waitFor("readyok");
+        waitForReady();
 
         // Set UCI_LimitStrength and UCI_Elo
         boolean success = sendCommand("setoption name UCI_LimitStrength value true")
                 && sendCommand("setoption name UCI_Elo value " + elo);
 
         // Wait for engine to be ready again
-        sendCommand("isready");
-        waitFor("readyok");
+        success &= waitForReady();
+
+        if (success) {
+            this.elo = elo;
+        }
+        return success;
+    }
+
+    /**
+     * Let the engine play at full strength again after setEloLevel
+     * @return True if successful
+     */
+    public boolean setFullStrength() {
+        if (elo == -1) {
+            return true;
+        }
 
+        // Make sure engine is ready
+        waitForReady();
+
+        boolean success = sendCommand("setoption name UCI_LimitStrength value false") && waitForReady();
+        if (success) {
+            this.elo = -1;
+        }
         return success;
     }
 
+    /**
+     * Get the ELO level set with setEloLevel
+     * @return ELO rating, or -1 if the strength is not limited
+     */
+    public int getEloLevel() {
+        return elo;
+    }
+
     /**
      * Get best move with time management for timed games
      * @param fen FEN position string
@@ -246,19 +548,16 @@ public class Stockfish {
      * @return Best move in UCI format
      */
     public String getBestMoveWithTimeManagement(String fen, long whiteTimeMs, long blackTimeMs) {
-        // Make sure engine is ready
-        sendCommand("isready");
-        waitFor("readyok");
-
-        // Set position and start calculation with time control
-        sendCommand("position fen " + fen);
+        // Make sure engine is ready, a game needs only the best line
+        setMultiPV(1);
+        waitForReady();
 
         // Calculate increment and moves to go
         int incrementMs = 0; // Add increment if your game uses it
         int movesToGo = 40;  // Typical time control assumption
 
-        // Send time control command
-        sendCommand("go wtime " + whiteTimeMs + " btime " + blackTimeMs +
+        // Set position and start calculation with time control
+        CompletableFuture<UciEvent> bestMove = startSearch(fen, "go wtime " + whiteTimeMs + " btime " + blackTimeMs +
                 " winc " + incrementMs + " binc " + incrementMs +
                 " movestogo " + movesToGo);
 
@@ -267,24 +566,48 @@ public class Stockfish {
         long availableTime = isWhiteTurn ? whiteTimeMs : blackTimeMs;
         long maxWaitTime = Math.min(availableTime / 10, 30000); // Max 30 seconds
 
-        // Get output with timeout
-        String output = getOutput(maxWaitTime);
-        for (String line : output.split("\n")) {
-            if (line.startsWith("bestmove")) {
-                return line.split(" ")[1];
-            }
-        }
+        // The engine is stopped and forced to move if it thinks longer
+        UciEvent event = awaitBestMove(bestMove, maxWaitTime);
+        return (event == null) ? null : event.getBestMove();
+    }
 
-        // If we didn't get a bestmove, force engine to move
-        sendCommand("stop");
-        output = getOutput(100);
-        for (String line : output.split("\n")) {
-            if (line.startsWith("bestmove")) {
-                return line.split(" ")[1];
-            }
+    /**
+     * Get the reply the engine expects to its last best move, to ponder on
+     * @return Move in UCI format, or null if the engine did not send one
+     */
+    public String getPonderMove() {
+        return ponderMove;
+    }
+
+    /**
+     * Enable or disable the Ponder option, which engines use to plan their time when they ponder
+     * @param enabled True if the engine will think on the opponent's time
+     */
+    public void setPonder(boolean enabled) {
+        if (enabled == ponder) {
+            return;
+        }
+        this.ponder = enabled;
+        if (isUCIReady) {
+            sendCommand("setoption name Ponder value " + ponder);
+            waitForReady();
         }
+    }
 
-        return null;
+    /**
+     * Set the number of principal variations the engine reports, analyze sets it itself
+     * @param multiPV Number of principal variations, at least 1
+     */
+    public void setMultiPV(int multiPV) {
+        multiPV = Math.max(1, multiPV);
+        if (multiPV == this.multiPV) {
+            return;
+        }
+        this.multiPV = multiPV;
+        if (isUCIReady) {
+            sendCommand("setoption name MultiPV value " + multiPV);
+            waitForReady();
+        }
     }
 
     /**
@@ -296,8 +619,7 @@ public class Stockfish {
         if (isUCIReady) {
             sendCommand("setoption name Hash value " + hashSizeMB);
             // Wait for ready confirmation
-            sendCommand("isready");
-            waitFor("readyok");
+            waitForReady();
         }
     }
 
@@ -311,8 +633,7 @@ public class Stockfish {
             if (isUCIReady) {
                 sendCommand("setoption name Threads value " + threads);
                 // Wait for ready confirmation
-                sendCommand("isready");
-                waitFor("readyok");
+                waitForReady();
             }
         }
     }
@@ -324,8 +645,7 @@ public class Stockfish {
         if (isUCIReady) {
             sendCommand("setoption name Clear Hash value true");
             // Wait for ready confirmation
-            sendCommand("isready");
-            waitFor("readyok");
+            waitForReady();
         }
     }
 
@@ -336,7 +656,24 @@ public class Stockfish {
     public void setUseCache(boolean useCache) {
         this.useHash = useCache;
         if (!useCache) {
-            positionCache.clear();
+            analysisCache.clear();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Use another cache for getBestMove results, e.g. one shared by all engines of a pool
+     * Results are keyed by the ELO level, so engines of different strength can share a cache
+     * @param analysisCache Cache to use
+     */
+    public void setAnalysisCache(AnalysisCache analysisCache) {
+        this.analysisCache = analysisCache;
+    }
+
+    /**
+     * Get the cache of getBestMove results, for its hit ratio
+     * @return The cache in use
+     */
+    public AnalysisCache getAnalysisCache() {
+        return analysisCache;
+    }
+}
@@ -0,0 +1,276 @@
+package ddt.chess.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// a bounded set of running Stockfish processes shared by many games
+// a game leases an engine for one move and releases it afterwards, so concurrent games
+// do not each start their own process with its own hash table and threads
+public class StockfishPool {
+    private static final long HEALTH_CHECK_INTERVAL_MILLIS = 30_000;
+
+    private final String path;
+    private final int maxEngines;
+    private final int threadsPerEngine;
+    private final int hashSizeMB;
+    private final long maxIdleMillis;
+    private final AnalysisCache analysisCache; // shared by every engine of the pool
+
+    // engines waiting for a lease, most recently returned first
+    private final Deque<Stockfish> idleEngines = new ArrayDeque<>();
+    // when each idle engine was returned
+    private final Map<Stockfish, Long> idleSince = new IdentityHashMap<>();
+    // who used each engine last, so a returning owner gets its engine back without ucinewgame
+    private final Map<Stockfish, Object> lastOwners = new IdentityHashMap<>();
+    private int engineCount = 0; // idle and leased
+    private boolean closed = false;
+    private final ScheduledExecutorService healthChecker;
+
+    /**
+     * Create a pool with one thread and 64 MB of hash per engine
+     * @param path Path to the Stockfish executable
+     * @param maxEngines Maximum number of engine processes
+     */
+    public StockfishPool(String path, int maxEngines) {
+        this(path, maxEngines, 1, 64, 5 * 60_000);
+    }
+
+    /**
+     * Create a pool, engines are started when they are first needed
+     * @param path Path to the Stockfish executable
+     * @param maxEngines Maximum number of engine processes
+     * @param threadsPerEngine Threads option of every engine
+     * @param hashSizeMB Hash option of every engine
+     * @param maxIdleMillis Idle engines are stopped after this long
+     */
+    public StockfishPool(String path, int maxEngines, int threadsPerEngine, int hashSizeMB, long maxIdleMillis) {
+        this(path, maxEngines, threadsPerEngine, hashSizeMB, maxIdleMillis, new AnalysisCache());
+    }
+
+    /**
+     * Create a pool, engines are started when they are first needed
+     * @param path Path to the Stockfish executable
+     * @param maxEngines Maximum number of engine processes
+     * @param threadsPerEngine Threads option of every engine
+     * @param hashSizeMB Hash option of every engine
+     * @param maxIdleMillis Idle engines are stopped after this long
+     * @param analysisCache Cache of search results shared by every engine
+     */
+    public StockfishPool(String path, int maxEngines, int threadsPerEngine, int hashSizeMB, long maxIdleMillis,
+                         AnalysisCache analysisCache) {
+        this.path = path;
+        this.maxEngines = Math.max(1, maxEngines);
+        this.threadsPerEngine = threadsPerEngine;
+        this.hashSizeMB = hashSizeMB;
+        this.maxIdleMillis = maxIdleMillis;
+        this.analysisCache = analysisCache;
+        healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stockfish-pool-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkIdleEngines,
+                HEALTH_CHECK_INTERVAL_MILLIS, HEALTH_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Lease an engine, waiting until one is free if all of them are in use
+     * An engine last used by someone else is sent ucinewgame first, idle engines that died are dropped
+     * @param owner The game (or anything identifying it) the engine is used for
+     * @param timeoutMillis Maximum time to wait for a free engine
+     * @return A ready engine, give it back with release
+     * @throws TimeoutException If no engine became free in time
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public Stockfish lease(Object owner, long timeoutMillis) throws TimeoutException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            Stockfish engine;
+            boolean startNew = false;
+            boolean sameOwner = false;
+            Deque<Stockfish> dead = new ArrayDeque<>();
+            try {
+                synchronized (this) {
+                    while (true) {
+                        if (closed) {
+                            throw new IllegalStateException("Stockfish pool is closed");
+                        }
+                        engine = takeIdleEngine(owner, dead);
+                        if (engine != null) {
+                            sameOwner = lastOwners.get(engine) == owner;
+                            break;
+                        }
+                        if (engineCount < maxEngines) {
+                            // reserve the slot now and start the process outside the lock
+                            engineCount++;
+                            startNew = true;
+                            break;
+                        }
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new TimeoutException("No Stockfish engine free after " + timeoutMillis + " ms");
+                        }
+                        wait(remaining);
+                    }
+                }
+            } finally {
+                // stopped outside the lock, they are already out of the pool
+                stopAll(dead);
+            }
+            if (startNew) {
+                engine = startEngine();
+            } else if (!sameOwner && !engine.newGame()) {
+                // the engine died or stopped answering while it was idle, lease or start another
+                discard(engine);
+                continue;
+            }
+            synchronized (this) {
+                lastOwners.put(engine, owner);
+            }
+            return engine;
+        }
+    }
+
+    /**
+     * Give a leased engine back to the pool, dead engines are dropped
+     * @param engine Engine returned by lease
+     */
+    public void release(Stockfish engine) {
+        synchronized (this) {
+            if (!closed && engine.isAlive()) {
+                idleEngines.push(engine);
+                idleSince.put(engine, System.currentTimeMillis());
+                notifyAll();
+                return;
+            }
+        }
+        discard(engine);
+    }
+
+    /**
+     * Stop every idle engine, leased engines are stopped when they are released
+     */
+    public void close() {
+        Deque<Stockfish> toStop;
+        synchronized (this) {
+            closed = true;
+            toStop = new ArrayDeque<>(idleEngines);
+            engineCount -= idleEngines.size();
+            idleEngines.clear();
+            idleSince.clear();
+            notifyAll();
+        }
+        healthChecker.shutdown();
+        for (Stockfish engine : toStop) {
+            engine.stopEngine();
+        }
+    }
+
+    public synchronized int getEngineCount() {
+        return engineCount;
+    }
+
+    public synchronized int getIdleEngineCount() {
+        return idleEngines.size();
+    }
+
+    public AnalysisCache getAnalysisCache() {
+        return analysisCache;
+    }
+
+    // prefer the engine the owner used last, then the most recently used one
+    // idle engines whose process died are taken out of the pool and added to dead
+    private Stockfish takeIdleEngine(Object owner, Deque<Stockfish> dead) {
+        Iterator<Stockfish> iterator = idleEngines.iterator();
+        while (iterator.hasNext()) {
+            Stockfish engine = iterator.next();
+            if (!engine.isAlive()) {
+                iterator.remove();
+                idleSince.remove(engine);
+                lastOwners.remove(engine);
+                engineCount--;
+                dead.add(engine);
+            }
+        }
+        if (!dead.isEmpty()) {
+            notifyAll();
+        }
+        Stockfish res = null;
+        for (Stockfish engine : idleEngines) {
+            if (lastOwners.get(engine) == owner) {
+                res = engine;
+                break;
+            }
+        }
+        if (res == null) {
+            res = idleEngines.peek();
+        }
+        if (res != null) {
+            idleEngines.remove(res);
+            idleSince.remove(res);
+        }
+        return res;
+    }
+
+    // take a leased engine out of the pool and stop it, freeing its slot
+    private void discard(Stockfish engine) {
+        synchronized (this) {
+            engineCount--;
+            lastOwners.remove(engine);
+            notifyAll();
+        }
+        engine.stopEngine();
+    }
+
+    private static void stopAll(Deque<Stockfish> engines) {
+        for (Stockfish engine : engines) {
+            engine.stopEngine();
+        }
+    }
+
+    private Stockfish startEngine() {
+        Stockfish engine = new Stockfish();
+        engine.setThreads(threadsPerEngine);
+        engine.setHashSize(hashSizeMB);
+        engine.setAnalysisCache(analysisCache);
+        if (!engine.startEngine(path)) {
+            engine.stopEngine();
+            synchronized (this) {
+                engineCount--;
+                notifyAll();
+            }
+            throw new IllegalStateException("Could not start Stockfish at " + path);
+        }
+        return engine;
+    }
+
+    // drop idle engines whose process died, and stop the ones unused for too long
+    private void checkIdleEngines() {
+        Deque<Stockfish> toStop = new ArrayDeque<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<Stockfish> iterator = idleEngines.iterator();
+            while (iterator.hasNext()) {
+                Stockfish engine = iterator.next();
+                if (!engine.isAlive() || now - idleSince.get(engine) > maxIdleMillis) {
+                    iterator.remove();
+                    idleSince.remove(engine);
+                    lastOwners.remove(engine);
+                    engineCount--;
+                    toStop.add(engine);
+                }
+            }
+            if (!toStop.isEmpty()) {
+                notifyAll();
+            }
+        }
+        stopAll(toStop);
+    }
+}
@@ -0,0 +1,71 @@
+package ddt.chess.util;
+
+// one line of UCI engine output, classified by its first word
+public class UciEvent {
+    public enum Type {
+        ID, UCIOK, READYOK, INFO, BESTMOVE, OTHER
+    }
+
+    private final Type type;
+    private final String line;
+    private final String bestMove; // only for BESTMOVE, null if the engine has no move ("(none)")
+    private final String ponderMove; // only for BESTMOVE, null if the engine did not send one
+
+    private UciEvent(Type type, String line, String bestMove, String ponderMove) {
+        this.type = type;
+        this.line = line;
+        this.bestMove = bestMove;
+        this.ponderMove = ponderMove;
+    }
+
+    /**
+     * Classify a line of engine output
+     * @param line Line without the line break
+     * @return Event for the line
+     */
+    public static UciEvent parse(String line) {
+        String trimmed = line.trim();
+        int space = trimmed.indexOf(' ');
+        String command = (space == -1) ? trimmed : trimmed.substring(0, space);
+        switch (command) {
+            case "id":
+                return new UciEvent(Type.ID, line, null, null);
+            case "uciok":
+                return new UciEvent(Type.UCIOK, line, null, null);
+            case "readyok":
+                return new UciEvent(Type.READYOK, line, null, null);
+            case "info":
+                return new UciEvent(Type.INFO, line, null, null);
+            case "bestmove": {
+                // bestmove <move> [ponder <move>]
+                String[] parts = trimmed.split("\\s+");
+                String bestMove = (parts.length > 1 && !parts[1].equals("(none)")) ? parts[1] : null;
+                String ponderMove = (parts.length > 3 && parts[2].equals("ponder")) ? parts[3] : null;
+                return new UciEvent(Type.BESTMOVE, line, bestMove, ponderMove);
+            }
+            default:
+                return new UciEvent(Type.OTHER, line, null, null);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    public String getBestMove() {
+        return bestMove;
+    }
+
+    public String getPonderMove() {
+        return ponderMove;
+    }
+
+    @Override
+    public String toString() {
+        return line;
+    }
+}